@@ -0,0 +1,76 @@
+package eu.virtuwind.monitoring.benchmarks;
+
+import eu.virtuwind.monitoring.impl.graphstream.algorithm.ConcurrentDijkstra;
+import eu.virtuwind.monitoring.impl.graphstream.algorithm.Dijkstra;
+import org.graphstream.graph.Node;
+import org.graphstream.graph.implementations.SingleGraph;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link Dijkstra#compute()} as used by the reactive flow writer: unit edge lengths, one shortest path
+ * tree per ARP, rooted at the host that sent it. Sources rotate through all the hosts of the topology. The
+ * {@link ConcurrentDijkstra} variant keeps the node data in an array instead of node attributes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DijkstraBenchmark {
+
+    @Param({"fat-tree:4", "fat-tree:8", "fat-tree:16", "fat-tree:32", "leaf-spine:4:16:16", "leaf-spine:16:64:32",
+            "ring:64", "ring:1024"})
+    public String topology;
+
+    private SingleGraph graph;
+    private Node[] sources;
+    private Node target;
+    private int nextSource;
+    private Dijkstra dijkstra;
+    private Dijkstra concurrentDijkstra;
+
+    @Setup
+    public void setUp() {
+        graph = Topologies.create(topology);
+        List<String> hosts = Topologies.getHosts(graph);
+        sources = new Node[hosts.size()];
+        for (int i = 0; i < sources.length; i++) {
+            sources[i] = graph.getNode(hosts.get(i));
+        }
+        target = sources[sources.length - 1];
+        dijkstra = new Dijkstra(Dijkstra.Element.EDGE, null, null);
+        dijkstra.init(graph);
+        concurrentDijkstra = new ConcurrentDijkstra(Dijkstra.Element.EDGE, null);
+        concurrentDijkstra.init(graph);
+    }
+
+    @Benchmark
+    public double compute() {
+        dijkstra.setSource(sources[nextSource]);
+        nextSource = (nextSource + 1) % sources.length;
+        dijkstra.compute();
+        return dijkstra.getPathLength(target);
+    }
+
+    @Benchmark
+    public double computeConcurrent() {
+        concurrentDijkstra.setSource(sources[nextSource]);
+        nextSource = (nextSource + 1) % sources.length;
+        concurrentDijkstra.compute();
+        return concurrentDijkstra.getPathLength(target);
+    }
+}
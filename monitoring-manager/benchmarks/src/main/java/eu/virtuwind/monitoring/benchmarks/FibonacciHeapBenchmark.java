@@ -0,0 +1,157 @@
+package eu.virtuwind.monitoring.benchmarks;
+
+import eu.virtuwind.monitoring.impl.graphstream.algorithm.util.FibonacciHeap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the individual operations of {@link FibonacciHeap} on heaps of the size of a topology. Every benchmark has
+ * its own state, filled once per iteration, and keeps its heap at that size: add clears the heap whenever it is full,
+ * extractMin adds back every extracted entry with a larger key, and decreaseKey consolidates the heap again after
+ * every pass over its nodes, so that the next pass cuts nodes off their trees as the first one did. Keys are
+ * pre-generated and boxed once where possible. Every benchmark reports the average time of a single operation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FibonacciHeapBenchmark {
+
+    private static final int OPERATIONS = 1024;
+    private static final Double MIN_KEY = Double.NEGATIVE_INFINITY;
+
+    /**
+     * The keys and values of the entries of a heap.
+     */
+    public abstract static class HeapState {
+        @Param({"1024", "16384"})
+        public int size;
+
+        Double[] keys;
+        double[] decrements;
+        Integer[] values;
+        FibonacciHeap<Double, Integer> heap = new FibonacciHeap<>();
+        int next;
+
+        @Setup(Level.Trial)
+        public void generateKeys() {
+            Random random = new Random(42);
+            keys = new Double[size];
+            decrements = new double[size];
+            values = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                keys[i] = (double) (1 + random.nextInt(size));
+                decrements[i] = size * random.nextDouble();
+                values[i] = i;
+            }
+        }
+
+        /**
+         * Fills the heap and consolidates it once, which is the state the heap is in after the first extraction of a
+         * shortest path computation.
+         */
+        List<FibonacciHeap<Double, Integer>.Node> fillHeap() {
+            List<FibonacciHeap<Double, Integer>.Node> nodes = new ArrayList<>(size);
+            heap.clear();
+            for (int i = 0; i < size; i++) {
+                nodes.add(heap.add(keys[i], values[i]));
+            }
+            consolidate();
+            next = 0;
+            return nodes;
+        }
+
+        void consolidate() {
+            heap.add(MIN_KEY, -1);
+            heap.extractMin();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class AddState extends HeapState {
+    }
+
+    @State(Scope.Thread)
+    public static class ExtractMinState extends HeapState {
+        @Setup(Level.Iteration)
+        public void setUp() {
+            fillHeap();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class DecreaseKeyState extends HeapState {
+        List<FibonacciHeap<Double, Integer>.Node> nodes;
+
+        @Setup(Level.Iteration)
+        public void setUp() {
+            nodes = fillHeap();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(OPERATIONS)
+    public FibonacciHeap<Double, Integer> add(AddState state) {
+        FibonacciHeap<Double, Integer> heap = state.heap;
+        for (int i = 0; i < OPERATIONS; i++) {
+            if (state.next == state.size) {
+                heap.clear();
+                state.next = 0;
+            }
+            heap.add(state.keys[state.next], state.values[state.next]);
+            state.next++;
+        }
+        return heap;
+    }
+
+    /**
+     * Extracts the minimum and adds it back behind all the current keys, the way the keys of a shortest path
+     * computation only grow, so that the heap neither drains nor grows.
+     */
+    @Benchmark
+    @OperationsPerInvocation(OPERATIONS)
+    public int extractMin(ExtractMinState state) {
+        FibonacciHeap<Double, Integer> heap = state.heap;
+        int sum = 0;
+        for (int i = 0; i < OPERATIONS; i++) {
+            double key = heap.getMinKey();
+            Integer value = heap.extractMin();
+            heap.add(key + state.size, value);
+            sum += value;
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(OPERATIONS)
+    public int decreaseKey(DecreaseKeyState state) {
+        FibonacciHeap<Double, Integer> heap = state.heap;
+        for (int i = 0; i < OPERATIONS; i++) {
+            FibonacciHeap<Double, Integer>.Node node = state.nodes.get(state.next);
+            heap.decreaseKey(node, node.getKey() - state.decrements[state.next]);
+            state.next++;
+            if (state.next == state.size) {
+                state.consolidate();
+                state.next = 0;
+            }
+        }
+        return heap.size();
+    }
+}
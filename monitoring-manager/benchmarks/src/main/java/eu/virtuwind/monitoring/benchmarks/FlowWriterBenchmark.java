@@ -0,0 +1,125 @@
+package eu.virtuwind.monitoring.benchmarks;
+
+import com.google.common.util.concurrent.Futures;
+import eu.virtuwind.monitoring.impl.flow.FlowWriterServiceImpl;
+import org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.ietf.yang.types.rev100924.MacAddress;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.service.rev130819.AddFlowInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.service.rev130819.AddFlowOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.service.rev130819.RemoveFlowInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.service.rev130819.RemoveFlowOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.service.rev130819.SalFlowService;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.service.rev130819.UpdateFlowInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.service.rev130819.UpdateFlowOutput;
+import org.opendaylight.yangtools.yang.common.RpcResult;
+import org.opendaylight.yangtools.yang.common.RpcResultBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the construction of the flow objects written for every hop of a path. The flow is built by the private
+ * {@code createMacToMacFlow} of {@link FlowWriterServiceImpl}, so it is measured through
+ * {@link FlowWriterServiceImpl#addMacToMacFlow}, with a {@link SalFlowService} that completes every RPC
+ * immediately. Besides the flow itself, this includes the flow instance identifier and the RPC input. The flows go
+ * through the ports of a few switches, so that the parts cached per switch and per port are reused as in a fabric.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FlowWriterBenchmark {
+
+    private static final int PAIRS = 256;
+    private static final int SWITCHES = 16;
+
+    private FlowWriterServiceImpl flowWriterService;
+    private MacAddress[] sourceMacs;
+    private MacAddress[] destinationMacs;
+    private MacAddress rewrittenMac;
+    private String[] switchIds;
+    private String[] outputPorts;
+    private int nextPair;
+
+    @Setup
+    public void setUp() {
+        flowWriterService = new FlowWriterServiceImpl(new NoopSalFlowService());
+        sourceMacs = new MacAddress[PAIRS];
+        destinationMacs = new MacAddress[PAIRS];
+        for (int i = 0; i < PAIRS; i++) {
+            sourceMacs[i] = new MacAddress(String.format("00:00:00:00:01:%02x", i));
+            destinationMacs[i] = new MacAddress(String.format("00:00:00:00:02:%02x", i));
+        }
+        rewrittenMac = new MacAddress("00:00:00:00:03:00");
+        switchIds = new String[PAIRS];
+        outputPorts = new String[PAIRS];
+        for (int i = 0; i < PAIRS; i++) {
+            switchIds[i] = "openflow:" + (i % SWITCHES + 1);
+            outputPorts[i] = switchIds[i] + ":" + (i / SWITCHES + 1);
+        }
+    }
+
+    @Benchmark
+    public int addMacToMacFlow() {
+        int pair = nextPair;
+        nextPair = (pair + 1) % PAIRS;
+        flowWriterService.addMacToMacFlow(switchIds[pair], sourceMacs[pair], destinationMacs[pair],
+                outputPorts[pair]);
+        return pair;
+    }
+
+    @Benchmark
+    public int addMacToMacFlowWithRewrite() {
+        int pair = nextPair;
+        nextPair = (pair + 1) % PAIRS;
+        flowWriterService.addMacToMacFlow(switchIds[pair], sourceMacs[pair], destinationMacs[pair],
+                outputPorts[pair], true, rewrittenMac);
+        return pair;
+    }
+
+    @Benchmark
+    public int addDestinationFlow() {
+        int pair = nextPair;
+        nextPair = (pair + 1) % PAIRS;
+        flowWriterService.addMacToMacFlow(switchIds[pair], null, destinationMacs[pair], outputPorts[pair]);
+        return pair;
+    }
+
+    /**
+     * Completes every RPC successfully without doing anything.
+     */
+    private static final class NoopSalFlowService implements SalFlowService {
+        private final Future<RpcResult<AddFlowOutput>> addFlowResult =
+                Futures.immediateFuture(RpcResultBuilder.<AddFlowOutput>success().build());
+        private final Future<RpcResult<RemoveFlowOutput>> removeFlowResult =
+                Futures.immediateFuture(RpcResultBuilder.<RemoveFlowOutput>success().build());
+        private final Future<RpcResult<UpdateFlowOutput>> updateFlowResult =
+                Futures.immediateFuture(RpcResultBuilder.<UpdateFlowOutput>success().build());
+
+        @Override
+        public Future<RpcResult<AddFlowOutput>> addFlow(AddFlowInput input) {
+            return addFlowResult;
+        }
+
+        @Override
+        public Future<RpcResult<RemoveFlowOutput>> removeFlow(RemoveFlowInput input) {
+            return removeFlowResult;
+        }
+
+        @Override
+        public Future<RpcResult<UpdateFlowOutput>> updateFlow(UpdateFlowInput input) {
+            return updateFlowResult;
+        }
+    }
+}
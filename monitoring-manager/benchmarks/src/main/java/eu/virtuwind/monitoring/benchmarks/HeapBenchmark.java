@@ -0,0 +1,127 @@
+package eu.virtuwind.monitoring.benchmarks;
+
+import eu.virtuwind.monitoring.impl.graphstream.algorithm.util.FibonacciHeap;
+import eu.virtuwind.monitoring.impl.graphstream.algorithm.util.IndexedDaryHeap;
+import eu.virtuwind.monitoring.impl.routing.CompactGraph;
+import org.graphstream.graph.implementations.SingleGraph;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the priority queues available to Dijkstra's algorithm by computing shortest path trees from every host
+ * of synthetic topologies. The Dijkstra loop is the same for all heaps; only the queue differs.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HeapBenchmark {
+
+    @Param({"fat-tree:8", "fat-tree:16", "ring:256", "ring:1024"})
+    public String topology;
+
+    @Param({"fibonacci", "2-ary", "4-ary"})
+    public String heap;
+
+    private CompactGraph graph;
+    private int[] sources;
+    private int nextSource;
+    private double[] distance;
+    private IndexedDaryHeap daryHeap;
+
+    @Setup
+    public void setUp() {
+        SingleGraph singleGraph = Topologies.create(topology);
+        graph = CompactGraph.of(singleGraph, null, 0);
+        List<String> hosts = Topologies.getHosts(singleGraph);
+        sources = new int[hosts.size()];
+        for (int i = 0; i < sources.length; i++) {
+            sources[i] = graph.indexOf(hosts.get(i));
+        }
+        distance = new double[graph.getNodeCount()];
+        if (!heap.equals("fibonacci")) {
+            int arity = Integer.parseInt(heap.substring(0, heap.indexOf('-')));
+            daryHeap = new IndexedDaryHeap(arity, graph.getNodeCount());
+        }
+    }
+
+    @Benchmark
+    public double shortestPathTree() {
+        int source = sources[nextSource];
+        nextSource = (nextSource + 1) % sources.length;
+        if (daryHeap == null) {
+            fibonacciDijkstra(source);
+        } else {
+            daryDijkstra(source);
+        }
+        return distance[sources[0]];
+    }
+
+    /**
+     * The loop of {@link eu.virtuwind.monitoring.impl.graphstream.algorithm.Dijkstra} before it moved to the
+     * indexed heap: every node enters the heap up front with an infinite key.
+     */
+    @SuppressWarnings("unchecked")
+    private void fibonacciDijkstra(int source) {
+        int n = graph.getNodeCount();
+        FibonacciHeap<Double, Integer> fibonacciHeap = new FibonacciHeap<>();
+        FibonacciHeap<Double, Integer>.Node[] nodes = new FibonacciHeap.Node[n];
+        for (int i = 0; i < n; i++) {
+            nodes[i] = fibonacciHeap.add(i == source ? 0 : Double.POSITIVE_INFINITY, i);
+        }
+        while (!fibonacciHeap.isEmpty()) {
+            double distanceU = fibonacciHeap.getMinKey();
+            int u = fibonacciHeap.extractMin();
+            distance[u] = distanceU;
+            nodes[u] = null;
+            for (int slot = graph.getFirstSlot(u), end = graph.getFirstSlot(u + 1); slot < end; slot++) {
+                FibonacciHeap<Double, Integer>.Node v = nodes[graph.getTarget(slot)];
+                if (v == null) {
+                    continue;
+                }
+                double tryDistance = distanceU + graph.getWeight(slot);
+                if (tryDistance < v.getKey()) {
+                    fibonacciHeap.decreaseKey(v, tryDistance);
+                }
+            }
+        }
+    }
+
+    private void daryDijkstra(int source) {
+        Arrays.fill(distance, Double.POSITIVE_INFINITY);
+        daryHeap.clear();
+        distance[source] = 0;
+        daryHeap.add(source, 0);
+        while (!daryHeap.isEmpty()) {
+            int u = daryHeap.extractMin();
+            double distanceU = distance[u];
+            for (int slot = graph.getFirstSlot(u), end = graph.getFirstSlot(u + 1); slot < end; slot++) {
+                int v = graph.getTarget(slot);
+                double tryDistance = distanceU + graph.getWeight(slot);
+                if (tryDistance < distance[v]) {
+                    distance[v] = tryDistance;
+                    if (daryHeap.contains(v)) {
+                        daryHeap.decreaseKey(v, tryDistance);
+                    } else {
+                        daryHeap.add(v, tryDistance);
+                    }
+                }
+            }
+        }
+    }
+}
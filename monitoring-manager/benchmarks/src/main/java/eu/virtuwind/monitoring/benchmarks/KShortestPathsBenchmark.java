@@ -0,0 +1,63 @@
+package eu.virtuwind.monitoring.benchmarks;
+
+import eu.virtuwind.monitoring.impl.graphstream.algorithm.KShortestPaths;
+import org.graphstream.graph.Node;
+import org.graphstream.graph.implementations.SingleGraph;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link KShortestPaths#compute()} for one pair of hosts, with unit edge lengths. Sources and targets
+ * rotate through all the hosts of the topology, so the result is the time per pair.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KShortestPathsBenchmark {
+
+    @Param({"fat-tree:8", "fat-tree:16", "leaf-spine:4:16:16", "leaf-spine:16:64:32"})
+    public String topology;
+
+    @Param({"2", "4", "8"})
+    public int k;
+
+    private Node[] hosts;
+    private int nextSource;
+    private KShortestPaths kShortestPaths;
+
+    @Setup
+    public void setUp() {
+        SingleGraph graph = Topologies.create(topology);
+        List<String> hostIds = Topologies.getHosts(graph);
+        hosts = new Node[hostIds.size()];
+        for (int i = 0; i < hosts.length; i++) {
+            hosts[i] = graph.getNode(hostIds.get(i));
+        }
+        kShortestPaths = new KShortestPaths(k, null);
+        kShortestPaths.init(graph);
+    }
+
+    @Benchmark
+    public int compute() {
+        kShortestPaths.setSource(hosts[nextSource]);
+        kShortestPaths.setTarget(hosts[(nextSource + hosts.length / 2) % hosts.length]);
+        nextSource = (nextSource + 1) % hosts.length;
+        kShortestPaths.compute();
+        return kShortestPaths.getPathCount();
+    }
+}
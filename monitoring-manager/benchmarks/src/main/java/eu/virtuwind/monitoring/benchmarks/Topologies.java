@@ -0,0 +1,186 @@
+package eu.virtuwind.monitoring.benchmarks;
+
+import org.graphstream.graph.Graph;
+import org.graphstream.graph.Node;
+import org.graphstream.graph.implementations.SingleGraph;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Generates synthetic topologies shaped like the graph that
+ * {@link eu.virtuwind.monitoring.impl.TopologyGraph} builds from the flow:1 topology: switches are named
+ * {@code openflow:N}, switch-to-switch links are a pair of directed edges named after their source port
+ * {@code openflow:N:P}, and hosts are nodes named after their MAC address, attached to a switch port by an
+ * undirected edge named after that port.
+ */
+public final class Topologies {
+
+    private Topologies() {
+        throw new UnsupportedOperationException("Utility class should never be instantiated");
+    }
+
+    /**
+     * Creates a topology from a textual specification, as used in benchmark parameters.
+     *
+     * @param spec {@code fat-tree:K}, {@code leaf-spine:SPINES:LEAVES:HOSTS} or {@code ring:N}
+     * @return the topology
+     */
+    public static SingleGraph create(String spec) {
+        String[] parts = spec.split(":");
+        if (parts.length == 2 && parts[0].equals("fat-tree")) {
+            return fatTree(Integer.parseInt(parts[1]));
+        }
+        if (parts.length == 4 && parts[0].equals("leaf-spine")) {
+            return leafSpine(Integer.parseInt(parts[1]), Integer.parseInt(parts[2]), Integer.parseInt(parts[3]));
+        }
+        if (parts.length == 2 && parts[0].equals("ring")) {
+            return ring(Integer.parseInt(parts[1]));
+        }
+        throw new IllegalArgumentException("Unknown topology " + spec);
+    }
+
+    /**
+     * Creates a k-ary fat tree: k pods of k/2 edge and k/2 aggregation switches, (k/2)^2 core switches and k/2
+     * hosts per edge switch.
+     *
+     * @param k the number of ports per switch, an even number
+     * @return the topology
+     */
+    public static SingleGraph fatTree(int k) {
+        if (k < 2 || k % 2 != 0) {
+            throw new IllegalArgumentException("k must be a positive even number");
+        }
+        Builder builder = new Builder("fat-tree-" + k);
+        int half = k / 2;
+        String[] core = new String[half * half];
+        for (int i = 0; i < core.length; i++) {
+            core[i] = builder.addSwitch();
+        }
+        for (int pod = 0; pod < k; pod++) {
+            String[] aggregation = new String[half];
+            for (int a = 0; a < half; a++) {
+                aggregation[a] = builder.addSwitch();
+                for (int c = 0; c < half; c++) {
+                    builder.addLink(aggregation[a], core[a * half + c]);
+                }
+            }
+            for (int e = 0; e < half; e++) {
+                String edge = builder.addSwitch();
+                for (String agg : aggregation) {
+                    builder.addLink(edge, agg);
+                }
+                for (int h = 0; h < half; h++) {
+                    builder.addHost(edge);
+                }
+            }
+        }
+        return builder.graph;
+    }
+
+    /**
+     * Creates a two-tier leaf-spine fabric where every leaf switch is linked to every spine switch.
+     *
+     * @param spines       the number of spine switches
+     * @param leaves       the number of leaf switches
+     * @param hostsPerLeaf the number of hosts attached to each leaf switch
+     * @return the topology
+     */
+    public static SingleGraph leafSpine(int spines, int leaves, int hostsPerLeaf) {
+        if (spines < 1 || leaves < 1 || hostsPerLeaf < 1) {
+            throw new IllegalArgumentException("A leaf-spine fabric needs at least one spine, leaf and host");
+        }
+        Builder builder = new Builder("leaf-spine-" + spines + "-" + leaves);
+        String[] spine = new String[spines];
+        for (int i = 0; i < spines; i++) {
+            spine[i] = builder.addSwitch();
+        }
+        for (int l = 0; l < leaves; l++) {
+            String leaf = builder.addSwitch();
+            for (String s : spine) {
+                builder.addLink(leaf, s);
+            }
+            for (int h = 0; h < hostsPerLeaf; h++) {
+                builder.addHost(leaf);
+            }
+        }
+        return builder.graph;
+    }
+
+    /**
+     * Creates a ring of switches with one host attached to each switch.
+     *
+     * @param switches the number of switches, at least 3
+     * @return the topology
+     */
+    public static SingleGraph ring(int switches) {
+        if (switches < 3) {
+            throw new IllegalArgumentException("A ring needs at least 3 switches");
+        }
+        Builder builder = new Builder("ring-" + switches);
+        String first = builder.addSwitch();
+        String previous = first;
+        builder.addHost(first);
+        for (int i = 1; i < switches; i++) {
+            String current = builder.addSwitch();
+            builder.addLink(previous, current);
+            builder.addHost(current);
+            previous = current;
+        }
+        builder.addLink(previous, first);
+        return builder.graph;
+    }
+
+    /**
+     * @param graph a generated topology
+     * @return the ids of the host nodes of the topology
+     */
+    public static List<String> getHosts(Graph graph) {
+        List<String> hosts = new ArrayList<>();
+        for (Node node : graph) {
+            if (!node.getId().startsWith("openflow:")) {
+                hosts.add(node.getId());
+            }
+        }
+        return hosts;
+    }
+
+    private static final class Builder {
+        private final SingleGraph graph;
+        private final Map<String, Integer> nextPort = new HashMap<>();
+        private int switches;
+        private int hosts;
+
+        private Builder(String id) {
+            graph = new SingleGraph(id);
+        }
+
+        private String addSwitch() {
+            String id = "openflow:" + (++switches);
+            graph.addNode(id);
+            nextPort.put(id, 1);
+            return id;
+        }
+
+        private String addPort(String switchId) {
+            int port = nextPort.get(switchId);
+            nextPort.put(switchId, port + 1);
+            return switchId + ":" + port;
+        }
+
+        private void addLink(String a, String b) {
+            graph.addEdge(addPort(a), a, b, true);
+            graph.addEdge(addPort(b), b, a, true);
+        }
+
+        private String addHost(String switchId) {
+            int h = ++hosts;
+            String mac = String.format("00:00:00:%02x:%02x:%02x", (h >> 16) & 0xff, (h >> 8) & 0xff, h & 0xff);
+            graph.addNode(mac);
+            graph.addEdge(addPort(switchId), mac, switchId, false);
+            return mac;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package eu.virtuwind.monitoring.benchmarks;
+
+import com.google.common.base.Optional;
+import com.google.common.util.concurrent.Futures;
+import eu.virtuwind.monitoring.impl.TopologyGraph;
+import eu.virtuwind.monitoring.impl.inventory.TopologyReader;
+import org.graphstream.graph.Edge;
+import org.graphstream.graph.Node;
+import org.graphstream.graph.implementations.SingleGraph;
+import org.opendaylight.controller.md.sal.binding.api.DataBroker;
+import org.opendaylight.controller.md.sal.binding.api.ReadOnlyTransaction;
+import org.opendaylight.controller.md.sal.common.api.data.LogicalDatastoreType;
+import org.opendaylight.controller.md.sal.common.api.data.ReadFailedException;
+import org.opendaylight.yang.gen.v1.urn.tbd.params.xml.ns.yang.network.topology.rev131021.LinkId;
+import org.opendaylight.yang.gen.v1.urn.tbd.params.xml.ns.yang.network.topology.rev131021.NodeId;
+import org.opendaylight.yang.gen.v1.urn.tbd.params.xml.ns.yang.network.topology.rev131021.TopologyId;
+import org.opendaylight.yang.gen.v1.urn.tbd.params.xml.ns.yang.network.topology.rev131021.TpId;
+import org.opendaylight.yang.gen.v1.urn.tbd.params.xml.ns.yang.network.topology.rev131021.link.attributes.DestinationBuilder;
+import org.opendaylight.yang.gen.v1.urn.tbd.params.xml.ns.yang.network.topology.rev131021.link.attributes.SourceBuilder;
+import org.opendaylight.yang.gen.v1.urn.tbd.params.xml.ns.yang.network.topology.rev131021.network.topology.Topology;
+import org.opendaylight.yang.gen.v1.urn.tbd.params.xml.ns.yang.network.topology.rev131021.network.topology.TopologyBuilder;
+import org.opendaylight.yang.gen.v1.urn.tbd.params.xml.ns.yang.network.topology.rev131021.network.topology.topology.Link;
+import org.opendaylight.yang.gen.v1.urn.tbd.params.xml.ns.yang.network.topology.rev131021.network.topology.topology.LinkBuilder;
+import org.opendaylight.yang.gen.v1.urn.tbd.params.xml.ns.yang.network.topology.rev131021.network.topology.topology.NodeBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Measures {@link TopologyGraph#addGraphElements()} building the graph of a whole topology from the data store.
+ * The {@link DataBroker} is a mock that returns the flow:1 topology the openflowplugin would write for a
+ * generated topology, e.g. about 6000 links for {@code fat-tree:16}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TopologyGraphBenchmark {
+
+    @Param({"fat-tree:8", "fat-tree:16", "leaf-spine:16:64:32"})
+    public String topology;
+
+    private Topology flowTopology;
+    private DataBroker dataBroker;
+
+    @Setup(Level.Trial)
+    public void createTopology() {
+        flowTopology = toFlowTopology(Topologies.create(topology));
+    }
+
+    /**
+     * Recreates the mocks on every iteration, as mocks keep a record of all their invocations.
+     */
+    @Setup(Level.Iteration)
+    public void mockDataBroker() {
+        ReadOnlyTransaction transaction = mock(ReadOnlyTransaction.class);
+        when(transaction.read(eq(LogicalDatastoreType.OPERATIONAL), eq(TopologyReader.getTopologyIdentifier())))
+                .thenReturn(Futures.<Optional<Topology>, ReadFailedException>immediateCheckedFuture(
+                        Optional.of(flowTopology)));
+        dataBroker = mock(DataBroker.class);
+        when(dataBroker.newReadOnlyTransaction()).thenReturn(transaction);
+    }
+
+    @Benchmark
+    public TopologyGraph addGraphElements() {
+        TopologyGraph topologyGraph = new TopologyGraph(dataBroker);
+        topologyGraph.addGraphElements();
+        return topologyGraph;
+    }
+
+    /**
+     * Converts a generated topology to the flow:1 topology from which {@link TopologyGraph} builds the same graph.
+     * Every switch-to-switch edge becomes a link, and every host edge becomes a link in each direction, as the
+     * host tracker reports them.
+     */
+    private static Topology toFlowTopology(SingleGraph graph) {
+        List<org.opendaylight.yang.gen.v1.urn.tbd.params.xml.ns.yang.network.topology.rev131021.network.topology.topology.Node> nodes =
+                new ArrayList<>();
+        for (Node node : graph) {
+            nodes.add(new NodeBuilder().setNodeId(new NodeId(toTopologyNodeId(node.getId()))).build());
+        }
+        List<Link> links = new ArrayList<>();
+        for (Edge edge : graph.getEachEdge()) {
+            String source = edge.getSourceNode().getId();
+            String target = edge.getTargetNode().getId();
+            if (edge.isDirected()) {
+                String reversePort = edge.getTargetNode().getEdgeToward(source).getId();
+                links.add(createLink(source, edge.getId(), target, reversePort));
+            } else {
+                String host = toTopologyNodeId(source);
+                links.add(createLink(host, host, target, edge.getId()));
+                links.add(createLink(target, edge.getId(), host, host));
+            }
+        }
+        return new TopologyBuilder().setTopologyId(new TopologyId("flow:1")).setNode(nodes).setLink(links).build();
+    }
+
+    private static Link createLink(String sourceNode, String sourceTp, String destinationNode, String destinationTp) {
+        return new LinkBuilder()
+                .setLinkId(new LinkId(sourceTp))
+                .setSource(new SourceBuilder()
+                        .setSourceNode(new NodeId(sourceNode))
+                        .setSourceTp(new TpId(sourceTp))
+                        .build())
+                .setDestination(new DestinationBuilder()
+                        .setDestNode(new NodeId(destinationNode))
+                        .setDestTp(new TpId(destinationTp))
+                        .build())
+                .build();
+    }
+
+    private static String toTopologyNodeId(String graphNodeId) {
+        return graphNodeId.startsWith("openflow:") ? graphNodeId : "host:" + graphNodeId;
+    }
+}
@@ -9,9 +9,25 @@ package eu.virtuwind.monitoring.impl;
 
 
 
+import eu.virtuwind.monitoring.impl.flow.FastReroute;
+import eu.virtuwind.monitoring.impl.flow.FlowBatcher;
+import eu.virtuwind.monitoring.impl.flow.FlowLifecycleManager;
+import eu.virtuwind.monitoring.impl.flow.FlowReconciler;
 import eu.virtuwind.monitoring.impl.flow.FlowWriterServiceImpl;
+import eu.virtuwind.monitoring.impl.flow.InstalledPathRegistry;
+import eu.virtuwind.monitoring.impl.flow.ProactiveFlowInstaller;
+import eu.virtuwind.monitoring.impl.flow.ShadowFlowTable;
 import eu.virtuwind.monitoring.impl.flow.ReactiveFlowWriter;
+import eu.virtuwind.monitoring.impl.inventory.IncrementalTopologyListener;
 import eu.virtuwind.monitoring.impl.inventory.InventoryReader;
+import eu.virtuwind.monitoring.impl.inventory.LinkWeightMonitor;
+import eu.virtuwind.monitoring.impl.inventory.TopologyChangeListener;
+import eu.virtuwind.monitoring.impl.inventory.TopologyReadiness;
+import eu.virtuwind.monitoring.impl.metrics.RoutingMetrics;
+import eu.virtuwind.monitoring.impl.routing.EqualCostPaths;
+import eu.virtuwind.monitoring.impl.routing.PathCache;
+import eu.virtuwind.monitoring.impl.routing.ShortestPathTreeCache;
+import eu.virtuwind.monitoring.impl.routing.ShortestPathTreeWarmUp;
 import org.opendaylight.controller.md.sal.binding.api.DataBroker;
 import org.opendaylight.controller.sal.binding.api.BindingAwareBroker.ProviderContext;
 import org.opendaylight.controller.sal.binding.api.BindingAwareProvider;
@@ -22,22 +38,46 @@ import org.opendaylight.yang.gen.v1.urn.opendaylight.packet.service.rev130709.Pa
 import org.opendaylight.yangtools.concepts.Registration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 
 
 
 public class MonitoringProvider implements BindingAwareProvider, AutoCloseable {
 
     private static final Logger LOG = LoggerFactory.getLogger(MonitoringProvider.class);
+    private static final long FLOW_BATCH_WINDOW_MILLIS = 5;
+    private static final int FLOW_BATCH_SIZE = 64;
+    private static final int FLOW_IDLE_TIMEOUT_SECONDS = 300;
+    // destination trees replace the paths per pair of hosts, without equal-cost paths and backup paths
+    private static final boolean DESTINATION_TREES = false;
+    private static final int SHORTEST_PATH_TREE_CACHE_SIZE = 1024;
+    private static final long LINK_WEIGHT_SAMPLE_PERIOD_SECONDS = 10;
+    private static final int EQUAL_COST_PATH_CACHE_SIZE = 4096;
+    private static final int MAX_EQUAL_COST_PATHS = 16;
+    private static final long TOPOLOGY_QUIET_MILLIS = 2000;
+    private static final long TOPOLOGY_MAX_WAIT_MILLIS = 60000;
+    private static final long METRICS_PUBLISH_PERIOD_SECONDS = 10;
+    private static final double PROACTIVE_TREES_PER_SECOND = 50;
+    private static final long PROACTIVE_CHECK_PERIOD_MILLIS = 1000;
+    private static final long RECONCILE_DELAY_MILLIS = 5000;
     private DataBroker dataBroker;
     private SalFlowService salFlowService;
     private NotificationProviderService notificationService;
     private RpcProviderRegistry rpcProviderRegistry;
     private PacketProcessingService packetProcessingService;
     private Registration reactFlowWriterReg;
+    private Registration topologyChangeReg;
+    private Registration flowLifecycleReg;
     private TopologyGraph topologyGraph;
+    private IncrementalTopologyListener topologyListener;
     private ReactiveFlowWriter reactiveFlowWriter;
+    private FlowBatcher flowBatcher;
+    private ShortestPathTreeCache treeCache;
+    private FastReroute fastReroute;
+    private LinkWeightMonitor linkWeightMonitor;
+    private TopologyReadiness topologyReadiness;
+    private RoutingMetrics routingMetrics;
+    private ProactiveFlowInstaller proactiveFlowInstaller;
+    private FlowReconciler flowReconciler;
 
 
     public MonitoringProvider(DataBroker dataBroker, RpcProviderRegistry rpcProviderRegistry,
@@ -49,28 +89,61 @@ public class MonitoringProvider implements BindingAwareProvider, AutoCloseable {
         this.packetProcessingService = rpcProviderRegistry.getRpcService(PacketProcessingService.class);
 
 
-        System.out.println("The Module Has Loaded Up");
+        LOG.info("The Module Has Loaded Up");
         setUpFlowWriters();
 
 
     }
 
     /**
-     * Instantiates FlowWriterServiceImpl, which has the functions for creating flows,  and ReactiveFlowWriter, which listens for
+     * Instantiates FlowWriterServiceImpl, which has the functions for creating flows and sends them in batches through a
+     * FlowBatcher, and ReactiveFlowWriter, which listens for
      * ARP packets and uses the flowWriterService to install flows accordingly.
      */
     private void setUpFlowWriters() {
         FlowWriterServiceImpl flowWriterService = new FlowWriterServiceImpl(salFlowService);
         flowWriterService.setFlowTableId((short) 0);
         flowWriterService.setFlowPriority(10);
-        flowWriterService.setFlowIdleTimeout(0);
+        flowWriterService.setFlowIdleTimeout(FLOW_IDLE_TIMEOUT_SECONDS);
         flowWriterService.setFlowHardTimeout(0);
+        flowBatcher = new FlowBatcher(salFlowService, FLOW_BATCH_WINDOW_MILLIS, FLOW_BATCH_SIZE);
+        flowWriterService.setFlowBatcher(flowBatcher);
+        ShadowFlowTable shadowFlowTable = new ShadowFlowTable();
+        flowWriterService.setShadowFlowTable(shadowFlowTable);
+        flowReconciler = new FlowReconciler(dataBroker, shadowFlowTable, flowBatcher, (short) 0,
+                RECONCILE_DELAY_MILLIS);
+        flowReconciler.register();
 
         InventoryReader inventoryReader = new InventoryReader(dataBroker);
         topologyGraph = new TopologyGraph(dataBroker);
-        reactiveFlowWriter = new ReactiveFlowWriter(topologyGraph, inventoryReader, flowWriterService);
+        PathCache pathCache = new PathCache(topologyGraph);
+        InstalledPathRegistry installedPaths = new InstalledPathRegistry();
+        FlowLifecycleManager flowLifecycleManager = new FlowLifecycleManager(installedPaths, shadowFlowTable);
+        treeCache = new ShortestPathTreeCache(SHORTEST_PATH_TREE_CACHE_SIZE);
+        reactiveFlowWriter = new ReactiveFlowWriter(topologyGraph, pathCache, treeCache, installedPaths,
+                inventoryReader, flowWriterService);
+        reactiveFlowWriter.setBidirectional(true);
+        reactiveFlowWriter.setDestinationTrees(DESTINATION_TREES);
+        reactiveFlowWriter.setEqualCostPaths(new EqualCostPaths(EQUAL_COST_PATH_CACHE_SIZE, MAX_EQUAL_COST_PATHS));
+        fastReroute = new FastReroute(topologyGraph, installedPaths, reactiveFlowWriter);
+        reactiveFlowWriter.setFastReroute(fastReroute);
+        flowLifecycleManager.setFastReroute(fastReroute);
+        flowLifecycleReg = notificationService.registerNotificationListener(flowLifecycleManager);
         reactFlowWriterReg = notificationService.registerNotificationListener(reactiveFlowWriter);
-        executeLater(1);
+        topologyListener = new IncrementalTopologyListener(dataBroker, topologyGraph);
+        topologyListener.register();
+        linkWeightMonitor = new LinkWeightMonitor(dataBroker, topologyGraph);
+        linkWeightMonitor.start(LINK_WEIGHT_SAMPLE_PERIOD_SECONDS);
+        topologyChangeReg = notificationService.registerNotificationListener(
+                new TopologyChangeListener(topologyGraph, fastReroute, linkWeightMonitor));
+        routingMetrics = new RoutingMetrics(dataBroker, topologyGraph, reactiveFlowWriter, pathCache, treeCache,
+                flowBatcher);
+        routingMetrics.start(METRICS_PUBLISH_PERIOD_SECONDS);
+        if (DESTINATION_TREES) {
+            proactiveFlowInstaller = new ProactiveFlowInstaller(topologyGraph, reactiveFlowWriter,
+                    PROACTIVE_TREES_PER_SECOND);
+        }
+        activateWhenTopologyReady();
 
     }
 
@@ -84,22 +157,67 @@ public class MonitoringProvider implements BindingAwareProvider, AutoCloseable {
     @Override
     public void close() throws Exception {
         LOG.info("MonitoringProvider Closed");
+        if (routingMetrics != null) {
+            routingMetrics.close();
+        }
+        if (proactiveFlowInstaller != null) {
+            proactiveFlowInstaller.close();
+        }
         if (reactFlowWriterReg != null) {
             reactFlowWriterReg.close();
         }
+        if (topologyChangeReg != null) {
+            topologyChangeReg.close();
+        }
+        if (flowLifecycleReg != null) {
+            flowLifecycleReg.close();
+        }
+        if (reactiveFlowWriter != null) {
+            reactiveFlowWriter.close();
+        }
+        if (flowReconciler != null) {
+            flowReconciler.close();
+        }
+        if (fastReroute != null) {
+            fastReroute.close();
+        }
+        if (linkWeightMonitor != null) {
+            linkWeightMonitor.close();
+        }
+        if (topologyReadiness != null) {
+            topologyReadiness.close();
+        }
+        if (topologyListener != null) {
+            topologyListener.close();
+        }
+        if (flowBatcher != null) {
+            flowBatcher.close();
+        }
     }
 
 
-    public void executeLater(long minutes) {
-        final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
-        executor.schedule(new Runnable() {
+    /**
+     * Precomputes the shortest path trees of the hosts and starts routing ARPs as soon as the flow:1 topology is
+     * populated and stable. ARPs received before are kept by the ReactiveFlowWriter and routed then. From then on, in
+     * destination tree mode, the trees of the hosts are also installed proactively as they are discovered.
+     */
+    private void activateWhenTopologyReady() {
+        topologyReadiness = new TopologyReadiness(topologyGraph, TOPOLOGY_QUIET_MILLIS, TOPOLOGY_MAX_WAIT_MILLIS);
+        topologyReadiness.start(new Runnable() {
             @Override
             public void run() {
-                System.out.println("Running");
-                topologyGraph.addGraphElements();
-                reactiveFlowWriter.setDelayElapsed(true);
+                try {
+                    new ShortestPathTreeWarmUp(treeCache, Runtime.getRuntime().availableProcessors())
+                            .warmUp(topologyGraph.getCompactGraph());
+                } catch (RuntimeException e) {
+                    LOG.warn("Failed to precompute the shortest path trees", e);
+                }
+                reactiveFlowWriter.activate();
+                if (proactiveFlowInstaller != null) {
+                    proactiveFlowInstaller.start(PROACTIVE_CHECK_PERIOD_MILLIS);
+                }
             }
-        }, minutes, TimeUnit.MINUTES);
+        });
     }
 
 }
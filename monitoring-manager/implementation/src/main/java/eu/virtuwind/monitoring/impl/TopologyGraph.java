@@ -1,83 +1,293 @@
 package eu.virtuwind.monitoring.impl;
 
 import eu.virtuwind.monitoring.impl.inventory.TopologyReader;
+import eu.virtuwind.monitoring.impl.routing.CompactGraph;
+import org.graphstream.graph.Edge;
 import org.graphstream.graph.implementations.SingleGraph;
 import org.opendaylight.controller.md.sal.binding.api.DataBroker;
 import org.opendaylight.yang.gen.v1.urn.tbd.params.xml.ns.yang.network.topology.rev131021.network.topology.topology.Node;
 import org.opendaylight.yang.gen.v1.urn.tbd.params.xml.ns.yang.network.topology.rev131021.network.topology.topology.Link;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
+/**
+ * The topology as a graph of switches and hosts, kept up to date with the flow:1 topology and the link notifications
+ * of the monitoring model. Changes are made under the lock of the instance and increment the version; readers get
+ * immutable, versioned views of the topology through {@link #getSnapshot()}.
+ */
 public class TopologyGraph {
 
+    private static final Logger LOG = LoggerFactory.getLogger(TopologyGraph.class);
+    /**
+     * The numeric edge attribute holding the length of an edge for path computation. Edges without it have length
+     * one.
+     */
+    public static final String WEIGHT_ATTRIBUTE = "weight";
     private SingleGraph graph = new SingleGraph("Topology");
     private DataBroker dataBroker;
-    private Map<String, String> linkMapping = new HashMap<>();
+    private Map<String, String> linkMapping = new ConcurrentHashMap<>();
+    private final AtomicLong version = new AtomicLong();
+    private final AtomicReference<TopologySnapshot> snapshot = new AtomicReference<>();
 
     public TopologyGraph(DataBroker dataBroker) {
         this.dataBroker = dataBroker;
-        System.out.println(graph.getId());
-    }
-
-    public SingleGraph getGraph() {
-        return graph;
     }
 
+    /**
+     * Returns the other end of a link as currently known: the peer port of a switch port, the switch port of a host
+     * MAC address, or the MAC address of the host on a switch port. Readers that also look at the graph should use
+     * {@link TopologySnapshot#getLinkEndNode(String)} instead, so that both agree.
+     *
+     * @param startNode a switch port, a host MAC address or a host-facing switch port
+     * @return the other end of the link, or {@code null} if unknown
+     */
     public String getLinkEndNode(String startNode) {
         return linkMapping.get(startNode);
     }
 
+    /**
+     * Returns a counter that is incremented every time a node or an edge is added to or removed from the graph.
+     * Anything derived from the graph (e.g. computed paths) is only valid for the version it was computed on.
+     *
+     * @return the current topology version
+     */
+    public long getVersion() {
+        return version.get();
+    }
+
+
+    /**
+     * Returns an immutable snapshot of the current version of the topology. The snapshot is taken lazily, at most
+     * once per version, by the first reader that sees the new version, so that a batch of changes is published as
+     * one snapshot; readers of an up-to-date snapshot do not lock. Edge lengths are read from
+     * {@link #WEIGHT_ATTRIBUTE}.
+     *
+     * @return the snapshot of the current version of the topology
+     */
+    public TopologySnapshot getSnapshot() {
+        TopologySnapshot current = snapshot.get();
+        if (current == null || current.getVersion() != version.get()) {
+            synchronized (this) {
+                current = snapshot.get();
+                if (current == null || current.getVersion() != version.get()) {
+                    current = new TopologySnapshot(CompactGraph.of(graph, WEIGHT_ATTRIBUTE, version.get()),
+                            linkMapping);
+                    snapshot.set(current);
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Returns the graph of the current snapshot, see {@link #getSnapshot()}.
+     *
+     * @return the compact graph of the current version of the topology
+     */
+    public CompactGraph getCompactGraph() {
+        return getSnapshot().getGraph();
+    }
+
 
-    public void addEdge(String edgeId, String fromNode, String toNode, boolean isDirected) {
+    public synchronized void addEdge(String edgeId, String fromNode, String toNode, boolean isDirected) {
         graph.addEdge(edgeId, fromNode, toNode, isDirected);
+        version.incrementAndGet();
     }
 
-    public void addNode(String nodeId) {
-        graph.addNode(nodeId);
+    public synchronized void addNode(String nodeId) {
+        if (graph.getNode(nodeId) == null) {
+            graph.addNode(nodeId);
+            version.incrementAndGet();
+        }
     }
 
+    /**
+     * Reads the whole flow:1 topology and adds every node and link of it to the graph. Elements that are already
+     * part of the graph are left untouched, so this can also be used to resynchronize the graph with the data store.
+     */
     public void addGraphElements() {
         try {
-            System.out.println("Adding graph elements!");
+            LOG.debug("Adding graph elements");
             List<Node> nodes = TopologyReader.getAllNodes(dataBroker);
             List<Link> links = TopologyReader.getAllLinks(dataBroker);
 
             for (Node node : nodes) {
-                String nodeId = node.getNodeId().getValue().replaceAll("host:", "");
-                addNode(nodeId);
-                System.out.println("Adding a node: " + nodeId);
+                addTopologyNode(node);
             }
 
             for (Link link : links) {
-                String source = link.getSource().getSourceNode().getValue().replaceAll("host:", "");
-                String destination = link.getDestination().getDestNode().getValue().replaceAll("host:", "");
-                String srcTp = link.getSource().getSourceTp().getValue();
-                String dstTp = link.getDestination().getDestTp().getValue();
-                String edge = "";
-                if (srcTp.contains("open")) {
-                    edge = srcTp;
-                    dstTp = dstTp.replaceAll("host:", "");
-                } else {
-                    edge = dstTp;
-                    srcTp = srcTp.replaceAll("host:", "");
-                }
-                linkMapping.put(srcTp, dstTp);
-                if (graph.getEdge(edge) == null) {
-                    if (source.contains("open") && destination.contains("open")) {
-                        addEdge(edge, source, destination, true);
-                    } else {
-                        addEdge(edge, source, destination, false);
-                    }
-                    System.out.println("Adding edge " + edge + " between " + source + " and " + destination);
-                }
+                addTopologyLink(link);
             }
 
-            System.out.println("Map of "+linkMapping);
+            LOG.debug("Map of {}", linkMapping);
 
         } catch (Exception e) {
-            e.printStackTrace();
+            LOG.error("Failed to add the topology to the graph", e);
+        }
+    }
+
+    /**
+     * Adds a node of the flow:1 topology to the graph. Host nodes are added under their MAC address.
+     *
+     * @param node the topology node
+     */
+    public synchronized void addTopologyNode(Node node) {
+        String nodeId = toGraphNodeId(node.getNodeId().getValue());
+        addNode(nodeId);
+        LOG.debug("Adding a node: {}", nodeId);
+    }
+
+    /**
+     * Removes a node of the flow:1 topology, together with all the edges attached to it, from the graph. The link ends
+     * of the node are forgotten in both directions: those of its ports, or of the host, and those of the peers that
+     * pointed to them.
+     *
+     * @param node the topology node
+     */
+    public synchronized void removeTopologyNode(Node node) {
+        String nodeId = toGraphNodeId(node.getNodeId().getValue());
+        if (graph.getNode(nodeId) != null) {
+            graph.removeNode(nodeId);
+            Iterator<Map.Entry<String, String>> mappings = linkMapping.entrySet().iterator();
+            while (mappings.hasNext()) {
+                Map.Entry<String, String> mapping = mappings.next();
+                if (isOfNode(mapping.getKey(), nodeId) || isOfNode(mapping.getValue(), nodeId)) {
+                    mappings.remove();
+                }
+            }
+            version.incrementAndGet();
+            LOG.debug("Removed node {}", nodeId);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Adds a link of the flow:1 topology to the graph. Links between two switches become directed edges named
+     * after the source termination point; links between a host and a switch become undirected edges named after
+     * the switch termination point. Missing end nodes are created.
+     *
+     * @param link the topology link
+     */
+    public synchronized void addTopologyLink(Link link) {
+        String source = toGraphNodeId(link.getSource().getSourceNode().getValue());
+        String destination = toGraphNodeId(link.getDestination().getDestNode().getValue());
+        String srcTp = link.getSource().getSourceTp().getValue();
+        String dstTp = link.getDestination().getDestTp().getValue();
+        String edge = "";
+        if (srcTp.contains("open")) {
+            edge = srcTp;
+            dstTp = toGraphNodeId(dstTp);
+        } else {
+            edge = dstTp;
+            srcTp = toGraphNodeId(srcTp);
+        }
+        if (!dstTp.equals(linkMapping.put(srcTp, dstTp))) {
+            version.incrementAndGet();
+        }
+        if (graph.getEdge(edge) == null) {
+            addNode(source);
+            addNode(destination);
+            if (source.contains("open") && destination.contains("open")) {
+                addEdge(edge, source, destination, true);
+            } else {
+                addEdge(edge, source, destination, false);
+            }
+            LOG.debug("Adding edge {} between {} and {}", edge, source, destination);
+        }
+    }
+
+    /**
+     * Removes the edge created for a link of the flow:1 topology by {@link #addTopologyLink(Link)}. The undirected
+     * edge of a host is shared by both directions of its link, so it is only removed once both are gone.
+     *
+     * @param link the topology link
+     */
+    public synchronized void removeTopologyLink(Link link) {
+        String srcTp = link.getSource().getSourceTp().getValue();
+        String dstTp = link.getDestination().getDestTp().getValue();
+        String edge = srcTp.contains("open") ? srcTp : dstTp;
+        String srcEnd = srcTp.contains("open") ? srcTp : toGraphNodeId(srcTp);
+        String dstEnd = dstTp.contains("open") ? dstTp : toGraphNodeId(dstTp);
+        linkMapping.remove(srcEnd);
+        boolean hostLink = !srcTp.contains("open") || !dstTp.contains("open");
+        if (hostLink && srcEnd.equals(linkMapping.get(dstEnd))) {
+            // the other direction is still there
+            version.incrementAndGet();
+            return;
+        }
+        if (graph.getEdge(edge) != null) {
+            graph.removeEdge(edge);
+            LOG.debug("Removed edge {}", edge);
+        }
+        version.incrementAndGet();
+    }
+
+    /**
+     * Sets the length of a batch of edges. The version is incremented once for the whole batch, and only if a length
+     * actually changed, so that derived paths are recomputed at most once per batch.
+     *
+     * @param weights the new length of each edge, by edge id; unknown edges are ignored
+     * @return true if a length changed
+     */
+    public synchronized boolean setEdgeWeights(Map<String, Double> weights) {
+        boolean changed = false;
+        for (Map.Entry<String, Double> weight : weights.entrySet()) {
+            Edge edge = graph.getEdge(weight.getKey());
+            if (edge != null && edge.getNumber(WEIGHT_ATTRIBUTE) != weight.getValue()) {
+                edge.setAttribute(WEIGHT_ATTRIBUTE, weight.getValue());
+                changed = true;
+            }
+        }
+        if (changed) {
+            version.incrementAndGet();
+            LOG.debug("Updated the weights of {}", weights);
+        }
+        return changed;
+    }
+
+    /**
+     * Removes a failed link, in both directions, from the graph without waiting for the flow:1 topology to report
+     * it. The link is identified as in the topology, by the termination point its edges are named after.
+     *
+     * @param linkId the id of the link
+     * @return true if an edge was removed
+     */
+    public synchronized boolean removeLink(String linkId) {
+        String peer = linkMapping.get(linkId);
+        boolean removed = false;
+        if (graph.getEdge(linkId) != null) {
+            graph.removeEdge(linkId);
+            removed = true;
+        }
+        linkMapping.remove(linkId);
+        if (peer != null && linkId.equals(linkMapping.get(peer))) {
+            if (graph.getEdge(peer) != null) {
+                graph.removeEdge(peer);
+                removed = true;
+            }
+            linkMapping.remove(peer);
+        }
+        if (removed) {
+            version.incrementAndGet();
+            LOG.debug("Removed link {}", linkId);
+        }
+        return removed;
+    }
+
+    /**
+     * @return true if the link end is the node itself or one of its ports
+     */
+    private static boolean isOfNode(String linkEnd, String nodeId) {
+        return linkEnd.equals(nodeId) || linkEnd.startsWith(nodeId + ":");
+    }
+
+    private static String toGraphNodeId(String topologyId) {
+        return topologyId.replaceAll("host:", "");
+    }
+}
@@ -0,0 +1,44 @@
+package eu.virtuwind.monitoring.impl;
+
+import com.google.common.collect.ImmutableMap;
+import eu.virtuwind.monitoring.impl.routing.CompactGraph;
+
+import java.util.Map;
+
+/**
+ * An immutable view of one version of the {@link TopologyGraph}: the graph, as a {@link CompactGraph}, together with
+ * the link mapping it was taken with. Everything read from one snapshot is consistent, whatever changes the topology
+ * goes through meanwhile, and anything derived from it can be keyed on its version.
+ */
+public final class TopologySnapshot {
+    private final CompactGraph graph;
+    private final Map<String, String> linkMapping;
+
+    public TopologySnapshot(CompactGraph graph, Map<String, String> linkMapping) {
+        this.graph = graph;
+        this.linkMapping = ImmutableMap.copyOf(linkMapping);
+    }
+
+    /**
+     * @return the topology version the snapshot was taken from
+     */
+    public long getVersion() {
+        return graph.getVersion();
+    }
+
+    public CompactGraph getGraph() {
+        return graph;
+    }
+
+    /**
+     * @param startNode a switch port, a host MAC address or a host-facing switch port
+     * @return the other end of the link, or {@code null} if unknown; see {@link TopologyGraph#getLinkEndNode(String)}
+     */
+    public String getLinkEndNode(String startNode) {
+        return linkMapping.get(startNode);
+    }
+
+    public Map<String, String> getLinkMapping() {
+        return linkMapping;
+    }
+}
@@ -0,0 +1,261 @@
+package eu.virtuwind.monitoring.impl.flow;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import eu.virtuwind.monitoring.impl.TopologyGraph;
+import eu.virtuwind.monitoring.impl.TopologySnapshot;
+import eu.virtuwind.monitoring.impl.routing.CompactDijkstra;
+import eu.virtuwind.monitoring.impl.routing.CompactGraph;
+import eu.virtuwind.monitoring.impl.routing.MacPair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Protects installed paths with precomputed backup paths. For every installed pair of hosts, a backup path that
+ * shares no switch-to-switch link with the installed path is computed in the background. When a link fails, the
+ * pairs whose installed path uses it are switched to their backup path right away, so that the failover only costs
+ * the flow writes and no path computation. Pairs without a usable backup path are forgotten by the
+ * {@link InstalledPathRegistry}, so that their next ARP installs a new path. Destination trees have no backup path:
+ * the trees using a failed link are computed again on the topology without it and rewritten right away.
+ */
+public class FastReroute implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(FastReroute.class);
+    private static final int BACKUP_QUEUE_CAPACITY = 1024;
+
+    private final TopologyGraph topologyGraph;
+    private final InstalledPathRegistry installedPaths;
+    private final PathProgrammer programmer;
+    private final ConcurrentMap<MacPair, Backup> backups = new ConcurrentHashMap<>();
+    private final PipelineStage backupStage = new PipelineStage("frr-backup", 1, BACKUP_QUEUE_CAPACITY);
+    // only used by the single thread of the backup stage
+    private final CompactDijkstra dijkstra = new CompactDijkstra();
+    private final AtomicLong computedBackups = new AtomicLong();
+    private final AtomicLong reroutes = new AtomicLong();
+    private final AtomicLong unprotectedFailures = new AtomicLong();
+
+    /**
+     * Writes the flows of a path.
+     */
+    public interface PathProgrammer {
+        /**
+         * @param pair        the source and destination hosts
+         * @param outputPorts the output ports of the path, starting at the switch closest to the destination
+         */
+        void programPath(MacPair pair, List<String> outputPorts);
+
+        /**
+         * @param destMac the destination host whose tree is computed again on the current topology and rewritten
+         */
+        void programDestinationTree(String destMac);
+    }
+
+    /**
+     * @param topologyGraph  the topology the backup paths are computed on
+     * @param installedPaths the installed paths
+     * @param programmer     writes the flows of the backup paths
+     */
+    public FastReroute(TopologyGraph topologyGraph, InstalledPathRegistry installedPaths,
+                       PathProgrammer programmer) {
+        this.topologyGraph = topologyGraph;
+        this.installedPaths = installedPaths;
+        this.programmer = programmer;
+    }
+
+    /**
+     * Queues the computation of the backup path of a pair, unless the pair already has a backup for the same path.
+     * Destination trees are only recorded, so that they are rewritten if one of their links fails.
+     *
+     * @param pair        the source and destination hosts
+     * @param outputPorts the output ports of the installed path
+     */
+    public void protect(final MacPair pair, List<String> outputPorts) {
+        final List<String> primaryPorts = ImmutableList.copyOf(outputPorts);
+        Backup backup = backups.get(pair);
+        if (backup != null && backup.primaryPorts.equals(primaryPorts)) {
+            return;
+        }
+        if (pair.isAnySource()) {
+            // a destination tree has no backup path, it is computed again when one of its links fails
+            backups.put(pair, new Backup(primaryPorts, getLinks(topologyGraph.getSnapshot(), primaryPorts),
+                    Collections.<String>emptyList(), ImmutableSet.<String>of()));
+            return;
+        }
+        backupStage.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    computeBackup(pair, primaryPorts);
+                } catch (Exception e) {
+                    LOG.warn("Failed to compute the backup path of {}", pair, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Switches the pairs whose installed path uses a failed link to their backup path, and rewrites the destination
+     * trees using it along their new tree. The link must already be removed from the topology. Both directions of a
+     * link between switches are identified by either of its ports.
+     *
+     * @param linkId the port the failed link is named after
+     */
+    public void onLinkFailed(String linkId) {
+        for (Map.Entry<MacPair, Backup> entry : backups.entrySet()) {
+            MacPair pair = entry.getKey();
+            Backup backup = entry.getValue();
+            if (!backup.primaryLinks.contains(linkId)) {
+                continue;
+            }
+            backups.remove(pair, backup);
+            if (!backup.primaryPorts.equals(installedPaths.getOutputPorts(pair))) {
+                // the pair has been rerouted or removed since the backup was computed
+                continue;
+            }
+            if (pair.isAnySource()) {
+                reroutes.incrementAndGet();
+                LOG.debug("Link {} failed, rewriting the tree of {}", linkId, pair.getDestinationMac());
+                programmer.programDestinationTree(pair.getDestinationMac());
+                continue;
+            }
+            if (backup.backupPorts.isEmpty() || backup.backupLinks.contains(linkId)) {
+                unprotectedFailures.incrementAndGet();
+                installedPaths.remove(pair);
+                LOG.info("Link {} failed, no backup path for {}", linkId, pair);
+                continue;
+            }
+            reroutes.incrementAndGet();
+            LOG.debug("Link {} failed, switching {} to {}", linkId, pair, backup.backupPorts);
+            programmer.programPath(pair, backup.backupPorts);
+        }
+    }
+
+    /**
+     * Forgets the backup path of a pair.
+     *
+     * @param pair the source and destination hosts
+     */
+    public void remove(MacPair pair) {
+        backups.remove(pair);
+    }
+
+    /**
+     * @return the number of pairs with a backup path
+     */
+    public int size() {
+        return backups.size();
+    }
+
+    /**
+     * @return the number of backup paths computed so far
+     */
+    public long getComputedBackups() {
+        return computedBackups.get();
+    }
+
+    /**
+     * @return the number of pairs switched to their backup path, and of trees rewritten, so far
+     */
+    public long getReroutes() {
+        return reroutes.get();
+    }
+
+    /**
+     * @return the number of pairs hit by a link failure without a usable backup path so far
+     */
+    public long getUnprotectedFailures() {
+        return unprotectedFailures.get();
+    }
+
+    public PipelineStage getBackupStage() {
+        return backupStage;
+    }
+
+    @Override
+    public void close() {
+        backupStage.close();
+    }
+
+    /**
+     * Runs Dijkstra from the source host on the current topology without the links of the installed path. The edges
+     * of the hosts are kept, since a host is attached to a single switch port.
+     */
+    private void computeBackup(MacPair pair, List<String> primaryPorts) {
+        if (!primaryPorts.equals(installedPaths.getOutputPorts(pair))) {
+            return;
+        }
+        TopologySnapshot snapshot = topologyGraph.getSnapshot();
+        Set<String> primaryLinks = getLinks(snapshot, primaryPorts);
+        CompactGraph graph = snapshot.getGraph();
+        int source = graph.indexOf(pair.getSourceMac());
+        int target = graph.indexOf(pair.getDestinationMac());
+        if (source < 0 || target < 0) {
+            return;
+        }
+        BitSet excludedSlots = new BitSet(graph.getSlotCount());
+        for (int slot = 0; slot < graph.getSlotCount(); slot++) {
+            if (primaryLinks.contains(graph.getEdgeId(slot)) && isSwitchLink(snapshot, graph.getEdgeId(slot))) {
+                excludedSlots.set(slot);
+            }
+        }
+        dijkstra.init(graph);
+        dijkstra.compute(source, excludedSlots);
+
+        String srcInPort = snapshot.getLinkEndNode(pair.getSourceMac());
+        List<String> backupPorts = new ArrayList<>();
+        for (String edgeId : dijkstra.getPathEdgeIds(target)) {
+            if (!edgeId.equals(srcInPort)) {
+                backupPorts.add(edgeId);
+            }
+        }
+        computedBackups.incrementAndGet();
+        backups.put(pair, new Backup(primaryPorts, primaryLinks, backupPorts, getLinks(snapshot, backupPorts)));
+        if (backupPorts.isEmpty()) {
+            LOG.debug("No backup path for {}", pair);
+        }
+    }
+
+    /**
+     * @return the output ports of a path, together with the other end of its links between switches
+     */
+    private static Set<String> getLinks(TopologySnapshot snapshot, List<String> outputPorts) {
+        ImmutableSet.Builder<String> links = ImmutableSet.builder();
+        for (String port : outputPorts) {
+            links.add(port);
+            String peer = snapshot.getLinkEndNode(port);
+            if (peer != null && peer.contains("open")) {
+                links.add(peer);
+            }
+        }
+        return links.build();
+    }
+
+    private static boolean isSwitchLink(TopologySnapshot snapshot, String port) {
+        String peer = snapshot.getLinkEndNode(port);
+        return peer != null && peer.contains("open");
+    }
+
+    private static final class Backup {
+        private final List<String> primaryPorts;
+        private final Set<String> primaryLinks;
+        private final List<String> backupPorts;
+        private final Set<String> backupLinks;
+
+        private Backup(List<String> primaryPorts, Set<String> primaryLinks, List<String> backupPorts,
+                       Set<String> backupLinks) {
+            this.primaryPorts = primaryPorts;
+            this.primaryLinks = primaryLinks;
+            this.backupPorts = Collections.unmodifiableList(backupPorts);
+            this.backupLinks = backupLinks;
+        }
+    }
+}
@@ -0,0 +1,392 @@
+package eu.virtuwind.monitoring.impl.flow;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.JdkFutureAdapters;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import eu.virtuwind.monitoring.impl.metrics.LatencyHistogram;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.service.rev130819.AddFlowInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.service.rev130819.AddFlowOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.service.rev130819.SalFlowService;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.types.rev131026.flow.Match;
+import org.opendaylight.yangtools.yang.common.RpcResult;
+import org.opendaylight.yangtools.yang.common.RpcResultBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Queues the flows to be added to each switch and sends them in batches, off the caller's thread. A batch is sent
+ * when the oldest flow queued for a switch has waited for the batch window, or as soon as the switch has as many
+ * queued flows as the maximum batch size, whichever comes first. The flows of a batch are sent back to back as
+ * {@link SalFlowService#addFlow(AddFlowInput)} RPCs without waiting for each other.
+ *
+ * <p>
+ * Flows queued for the same switch with the same table, priority and match are coalesced: only the most recent one
+ * is sent, and all the callers get its result.
+ * </p>
+ *
+ * <p>
+ * Flows are removed directly, not through the batcher. Before a flow is removed, {@link #cancel} drops the queued
+ * flow of the switch with the same match, so that it is not added after the removal.
+ * </p>
+ */
+public class FlowBatcher implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(FlowBatcher.class);
+
+    private final SalFlowService salFlowService;
+    private final long batchWindowMillis;
+    private final int maxBatchSize;
+    private final ScheduledExecutorService executor;
+    private final ConcurrentMap<String, PendingFlows> pendingFlows = new ConcurrentHashMap<>();
+    // submissions queue flows under the read lock, closing takes the write lock so that no flow is queued after the
+    // executor is shut down
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+    private boolean closed;
+
+    private final AtomicLong submittedFlows = new AtomicLong();
+    private final AtomicLong coalescedFlows = new AtomicLong();
+    private final AtomicLong cancelledFlows = new AtomicLong();
+    private final AtomicLong sentFlows = new AtomicLong();
+    private final AtomicLong succeededFlows = new AtomicLong();
+    private final AtomicLong failedFlows = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+    private final LatencyHistogram addFlowLatency = new LatencyHistogram();
+
+    /**
+     * @param salFlowService    the service the flows are sent to
+     * @param batchWindowMillis the longest time a flow is queued, in milliseconds
+     * @param maxBatchSize      the number of flows queued for a switch that triggers a batch immediately
+     */
+    public FlowBatcher(SalFlowService salFlowService, long batchWindowMillis, int maxBatchSize) {
+        Preconditions.checkNotNull(salFlowService, "salFlowService should not be null.");
+        Preconditions.checkArgument(batchWindowMillis >= 0, "batchWindowMillis should not be negative.");
+        Preconditions.checkArgument(maxBatchSize > 0, "maxBatchSize should be positive.");
+        this.salFlowService = salFlowService;
+        this.batchWindowMillis = batchWindowMillis;
+        this.maxBatchSize = maxBatchSize;
+        this.executor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("flow-batcher-%d").setDaemon(true).build());
+    }
+
+    /**
+     * Queues a flow to be added to a switch.
+     *
+     * @param switchId the switch, e.g. openflow:1
+     * @param input    the input of the addFlow RPC
+     * @return the result of the RPC that adds the flow, or of the one that adds a more recent flow it was coalesced
+     * with
+     */
+    public ListenableFuture<RpcResult<AddFlowOutput>> submit(String switchId, AddFlowInput input) {
+        submittedFlows.incrementAndGet();
+        closeLock.readLock().lock();
+        try {
+            if (!closed) {
+                PendingFlows pending = pendingFlows.get(switchId);
+                if (pending == null) {
+                    PendingFlows created = new PendingFlows(switchId);
+                    pending = pendingFlows.putIfAbsent(switchId, created);
+                    if (pending == null) {
+                        pending = created;
+                    }
+                }
+                return pending.add(input);
+            }
+        } finally {
+            closeLock.readLock().unlock();
+        }
+        SettableFuture<RpcResult<AddFlowOutput>> result = SettableFuture.create();
+        send(new PendingFlow(input, result));
+        return result;
+    }
+
+    /**
+     * Drops the flow queued for a switch with the same table, priority and match as a flow about to be removed. Its
+     * callers get a successful result, as the flow was superseded by its removal. Once this returns, the queued flow
+     * was either dropped or already sent, so a removal sent afterwards reaches the switch after it.
+     *
+     * @param switchId the switch, e.g. openflow:1
+     * @param tableId  the table of the flow
+     * @param priority the priority of the flow
+     * @param match    the match of the flow
+     * @return true if a queued flow was dropped
+     */
+    public boolean cancel(String switchId, Short tableId, Integer priority, Match match) {
+        PendingFlows pending = pendingFlows.get(switchId);
+        if (pending == null || !pending.cancel(new MatchKey(tableId, priority, match))) {
+            return false;
+        }
+        cancelledFlows.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * @return the number of flows submitted so far
+     */
+    public long getSubmittedFlows() {
+        return submittedFlows.get();
+    }
+
+    /**
+     * @return the number of submitted flows that were replaced by a more recent flow before being sent
+     */
+    public long getCoalescedFlows() {
+        return coalescedFlows.get();
+    }
+
+    /**
+     * @return the number of submitted flows that were dropped because they were removed before being sent
+     */
+    public long getCancelledFlows() {
+        return cancelledFlows.get();
+    }
+
+    /**
+     * @return the number of addFlow RPCs sent so far
+     */
+    public long getSentFlows() {
+        return sentFlows.get();
+    }
+
+    /**
+     * @return the number of addFlow RPCs that completed successfully
+     */
+    public long getSucceededFlows() {
+        return succeededFlows.get();
+    }
+
+    /**
+     * @return the number of addFlow RPCs that failed
+     */
+    public long getFailedFlows() {
+        return failedFlows.get();
+    }
+
+    /**
+     * @return the number of batches sent so far
+     */
+    public long getBatches() {
+        return batches.get();
+    }
+
+    /**
+     * @return the number of flows currently queued, over all the switches
+     */
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    /**
+     * @return the highest number of flows that were queued at the same time
+     */
+    public int getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    /**
+     * @return the latency of the addFlow RPCs, from their call to their result, successful or not
+     */
+    public LatencyHistogram getAddFlowLatency() {
+        return addFlowLatency;
+    }
+
+    /**
+     * Sends all the queued flows and stops the batching thread. Flows submitted afterwards are sent immediately.
+     */
+    @Override
+    public void close() {
+        closeLock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            executor.shutdown();
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+        for (PendingFlows pending : pendingFlows.values()) {
+            pending.run();
+        }
+    }
+
+    private void send(final PendingFlow flow) {
+        sentFlows.incrementAndGet();
+        final long start = System.nanoTime();
+        ListenableFuture<RpcResult<AddFlowOutput>> result;
+        try {
+            result = JdkFutureAdapters.listenInPoolThread(salFlowService.addFlow(flow.input));
+        } catch (RuntimeException e) {
+            result = Futures.immediateFailedFuture(e);
+        }
+        Futures.addCallback(result, new FutureCallback<RpcResult<AddFlowOutput>>() {
+            @Override
+            public void onSuccess(RpcResult<AddFlowOutput> rpcResult) {
+                addFlowLatency.record(System.nanoTime() - start);
+                if (rpcResult != null && rpcResult.isSuccessful()) {
+                    succeededFlows.incrementAndGet();
+                } else {
+                    failedFlows.incrementAndGet();
+                    LOG.warn("Flow {} was not added: {}", flow.input.getFlowName(),
+                            rpcResult == null ? null : rpcResult.getErrors());
+                }
+                flow.result.set(rpcResult);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                addFlowLatency.record(System.nanoTime() - start);
+                failedFlows.incrementAndGet();
+                LOG.warn("Flow {} was not added", flow.input.getFlowName(), t);
+                flow.result.setException(t);
+            }
+        });
+    }
+
+    private void updateMaxQueueDepth(int depth) {
+        int max = maxQueueDepth.get();
+        while (depth > max && !maxQueueDepth.compareAndSet(max, depth)) {
+            max = maxQueueDepth.get();
+        }
+    }
+
+    /**
+     * The flows queued for one switch. Running it sends them as one batch.
+     */
+    private final class PendingFlows implements Runnable {
+        private final String switchId;
+        private Map<MatchKey, PendingFlow> flows = new LinkedHashMap<>();
+        private boolean flushScheduled;
+
+        private PendingFlows(String switchId) {
+            this.switchId = switchId;
+        }
+
+        private synchronized ListenableFuture<RpcResult<AddFlowOutput>> add(AddFlowInput input) {
+            MatchKey key = new MatchKey(input);
+            PendingFlow existing = flows.get(key);
+            if (existing != null) {
+                coalescedFlows.incrementAndGet();
+                flows.put(key, new PendingFlow(input, existing.result));
+                return existing.result;
+            }
+            PendingFlow flow = new PendingFlow(input, SettableFuture.<RpcResult<AddFlowOutput>>create());
+            flows.put(key, flow);
+            updateMaxQueueDepth(queueDepth.incrementAndGet());
+            if (flows.size() >= maxBatchSize) {
+                flushScheduled = true;
+                executor.execute(this);
+            } else if (!flushScheduled) {
+                flushScheduled = true;
+                executor.schedule(this, batchWindowMillis, TimeUnit.MILLISECONDS);
+            }
+            return flow.result;
+        }
+
+        private synchronized boolean cancel(MatchKey key) {
+            PendingFlow flow = flows.remove(key);
+            if (flow == null) {
+                return false;
+            }
+            queueDepth.decrementAndGet();
+            flow.result.set(RpcResultBuilder.<AddFlowOutput>success().build());
+            return true;
+        }
+
+        private List<PendingFlow> takeAll() {
+            List<PendingFlow> batch = new ArrayList<>(flows.values());
+            flows = new LinkedHashMap<>();
+            flushScheduled = false;
+            queueDepth.addAndGet(-batch.size());
+            return batch;
+        }
+
+        /**
+         * Sends the batch while holding the lock of the switch, so that a flow cancelled concurrently is either
+         * dropped or sent before the cancellation returns.
+         */
+        @Override
+        public synchronized void run() {
+            List<PendingFlow> batch = takeAll();
+            if (batch.isEmpty()) {
+                return;
+            }
+            batches.incrementAndGet();
+            LOG.debug("Sending a batch of {} flows to {}", batch.size(), switchId);
+            for (PendingFlow flow : batch) {
+                send(flow);
+            }
+        }
+    }
+
+    private static final class PendingFlow {
+        private final AddFlowInput input;
+        private final SettableFuture<RpcResult<AddFlowOutput>> result;
+
+        private PendingFlow(AddFlowInput input, SettableFuture<RpcResult<AddFlowOutput>> result) {
+            this.input = input;
+            this.result = result;
+        }
+    }
+
+    /**
+     * Identifies the flows a switch would treat as the same entry: same table, priority and match.
+     */
+    private static final class MatchKey {
+        private final Short tableId;
+        private final Integer priority;
+        private final Match match;
+
+        private MatchKey(AddFlowInput input) {
+            this(input.getTableId(), input.getPriority(), input.getMatch());
+        }
+
+        private MatchKey(Short tableId, Integer priority, Match match) {
+            this.tableId = tableId;
+            this.priority = priority;
+            this.match = match;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof MatchKey)) {
+                return false;
+            }
+            MatchKey other = (MatchKey) o;
+            return equal(tableId, other.tableId) && equal(priority, other.priority) && equal(match, other.match);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = tableId != null ? tableId.hashCode() : 0;
+            result = 31 * result + (priority != null ? priority.hashCode() : 0);
+            result = 31 * result + (match != null ? match.hashCode() : 0);
+            return result;
+        }
+
+        private static boolean equal(Object a, Object b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+}
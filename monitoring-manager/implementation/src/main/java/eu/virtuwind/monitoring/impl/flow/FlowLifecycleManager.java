@@ -0,0 +1,120 @@
+package eu.virtuwind.monitoring.impl.flow;
+
+import eu.virtuwind.monitoring.impl.routing.MacPair;
+import eu.virtuwind.monitoring.impl.util.InstanceIdentifierUtils;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.service.rev130819.FlowAdded;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.service.rev130819.FlowRemoved;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.service.rev130819.FlowUpdated;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.service.rev130819.NodeErrorNotification;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.service.rev130819.NodeExperimenterErrorNotification;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.service.rev130819.SalFlowListener;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.service.rev130819.SwitchFlowRemoved;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.model.match.types.rev131026.match.EthernetMatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the installed paths consistent with the flows the switches actually hold once flows expire. The
+ * {@link FlowWriterServiceImpl} records every flow it writes in the {@link ShadowFlowTable}, which tells the cookie of
+ * the current flow of every match on every switch. When a switch reports that a flow was removed, typically because it
+ * idled out, and the removed flow is the current one, the flow is dropped from the shadow table, and the path of its
+ * pair of hosts, or the tree of its destination for a flow without source, is forgotten by the
+ * {@link InstalledPathRegistry} and its backup by the {@link FastReroute}. The next ARP of the pair then installs the
+ * path again, still from the path cache if the topology did not change. Removals of flows that were replaced since,
+ * e.g. by a reroute, are ignored. The flows of destination trees are written without timeout, so trees are not
+ * forgotten on an idle branch; they are rewritten when the topology changes instead.
+ */
+public class FlowLifecycleManager implements SalFlowListener {
+    private static final Logger LOG = LoggerFactory.getLogger(FlowLifecycleManager.class);
+
+    private final InstalledPathRegistry installedPaths;
+    private final ShadowFlowTable shadowFlowTable;
+    private volatile FastReroute fastReroute;
+    private final AtomicLong removedFlows = new AtomicLong();
+    private final AtomicLong expiredPaths = new AtomicLong();
+
+    public FlowLifecycleManager(InstalledPathRegistry installedPaths, ShadowFlowTable shadowFlowTable) {
+        this.installedPaths = installedPaths;
+        this.shadowFlowTable = shadowFlowTable;
+    }
+
+    /**
+     * @param fastReroute the fast reroute whose backups are dropped with the expired paths, or {@code null}
+     */
+    public void setFastReroute(FastReroute fastReroute) {
+        this.fastReroute = fastReroute;
+    }
+
+    /**
+     * @return the number of recorded flows reported as removed by the switches so far
+     */
+    public long getRemovedFlows() {
+        return removedFlows.get();
+    }
+
+    /**
+     * @return the number of installed paths forgotten because one of their flows was removed
+     */
+    public long getExpiredPaths() {
+        return expiredPaths.get();
+    }
+
+    @Override
+    public void onSwitchFlowRemoved(SwitchFlowRemoved notification) {
+        String switchId = InstanceIdentifierUtils.getNodeId(notification.getNode());
+        EthernetMatch ethernetMatch = notification.getMatch() == null ? null
+                : notification.getMatch().getEthernetMatch();
+        if (switchId == null || ethernetMatch == null || ethernetMatch.getEthernetDestination() == null
+                || ethernetMatch.getEthernetDestination().getAddress() == null) {
+            return;
+        }
+        String sourceMac = ethernetMatch.getEthernetSource() == null
+                || ethernetMatch.getEthernetSource().getAddress() == null ? null
+                : ethernetMatch.getEthernetSource().getAddress().getValue();
+        String destMac = ethernetMatch.getEthernetDestination().getAddress().getValue();
+        BigInteger cookie = notification.getCookie() == null ? null : notification.getCookie().getValue();
+        if (!shadowFlowTable.remove(switchId, sourceMac, destMac, cookie)) {
+            // not written by us, or replaced since
+            return;
+        }
+        removedFlows.incrementAndGet();
+        MacPair pair = sourceMac == null ? MacPair.anySource(destMac) : new MacPair(sourceMac, destMac);
+        if (installedPaths.getOutputPorts(pair) != null) {
+            expiredPaths.incrementAndGet();
+            installedPaths.remove(pair);
+            FastReroute reroute = fastReroute;
+            if (reroute != null) {
+                reroute.remove(pair);
+            }
+            LOG.debug("Flow of {} removed from {}, path forgotten", pair, switchId);
+        }
+    }
+
+    @Override
+    public void onFlowAdded(FlowAdded notification) {
+        // flows are tracked when they are written
+    }
+
+    @Override
+    public void onFlowRemoved(FlowRemoved notification) {
+        // removals requested by the controller, not by the switches
+    }
+
+    @Override
+    public void onFlowUpdated(FlowUpdated notification) {
+        // flows are tracked when they are written
+    }
+
+    @Override
+    public void onNodeErrorNotification(NodeErrorNotification notification) {
+        // errors are reported by the results of the addFlow RPCs
+    }
+
+    @Override
+    public void onNodeExperimenterErrorNotification(NodeExperimenterErrorNotification notification) {
+        // errors are reported by the results of the addFlow RPCs
+    }
+}
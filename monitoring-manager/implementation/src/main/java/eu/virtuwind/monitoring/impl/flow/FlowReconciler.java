@@ -0,0 +1,157 @@
+package eu.virtuwind.monitoring.impl.flow;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import eu.virtuwind.monitoring.impl.util.InstanceIdentifierUtils;
+import org.opendaylight.controller.md.sal.binding.api.DataBroker;
+import org.opendaylight.controller.md.sal.binding.api.DataObjectModification;
+import org.opendaylight.controller.md.sal.binding.api.DataTreeChangeListener;
+import org.opendaylight.controller.md.sal.binding.api.DataTreeIdentifier;
+import org.opendaylight.controller.md.sal.binding.api.DataTreeModification;
+import org.opendaylight.controller.md.sal.binding.api.ReadOnlyTransaction;
+import org.opendaylight.controller.md.sal.common.api.data.LogicalDatastoreType;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.inventory.rev130819.tables.Table;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.inventory.rev130819.tables.TableKey;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.inventory.rev130819.tables.table.Flow;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.service.rev130819.AddFlowInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.Nodes;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.nodes.Node;
+import org.opendaylight.yangtools.concepts.ListenerRegistration;
+import org.opendaylight.yangtools.yang.binding.InstanceIdentifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Restores the flows of a switch that reconnects. When a switch with flows in the {@link ShadowFlowTable} shows up
+ * again in the operational inventory, its flow table is read once the switch had time to report it, and only the
+ * flows of the shadow table that the switch lacks, or holds with another cookie, are written again through the
+ * {@link FlowBatcher}. A switch that kept its flows therefore costs a read, and the flow writes of a reconnection are
+ * bounded by what the switch actually lost, instead of waiting for the ARPs to install every path again.
+ */
+public class FlowReconciler implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FlowReconciler.class);
+
+    private final DataBroker dataBroker;
+    private final ShadowFlowTable shadowFlowTable;
+    private final FlowBatcher flowBatcher;
+    private final TableKey tableKey;
+    private final long delayMillis;
+    private final ScheduledExecutorService executor;
+    private ListenerRegistration<NodeListener> nodeListenerReg;
+    private final AtomicLong reconciledSwitches = new AtomicLong();
+    private final AtomicLong rewrittenFlows = new AtomicLong();
+
+    /**
+     * @param dataBroker      the data broker the inventory is read from
+     * @param shadowFlowTable the flows written to the switches
+     * @param flowBatcher     writes the missing flows
+     * @param tableId         the table the flows are written to
+     * @param delayMillis     the time given to a switch to report its flow table after it connected, in milliseconds
+     */
+    public FlowReconciler(DataBroker dataBroker, ShadowFlowTable shadowFlowTable, FlowBatcher flowBatcher,
+                          short tableId, long delayMillis) {
+        Preconditions.checkArgument(delayMillis >= 0, "delayMillis should not be negative.");
+        this.dataBroker = dataBroker;
+        this.shadowFlowTable = shadowFlowTable;
+        this.flowBatcher = flowBatcher;
+        this.tableKey = new TableKey(tableId);
+        this.delayMillis = delayMillis;
+        this.executor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("flow-reconciler-%d").setDaemon(true).build());
+    }
+
+    /**
+     * Registers the listener of the switches of the operational inventory.
+     */
+    public void register() {
+        nodeListenerReg = dataBroker.registerDataTreeChangeListener(
+                new DataTreeIdentifier<>(LogicalDatastoreType.OPERATIONAL,
+                        InstanceIdentifier.create(Nodes.class).child(Node.class)),
+                new NodeListener());
+    }
+
+    /**
+     * @return the number of switches reconciled so far
+     */
+    public long getReconciledSwitches() {
+        return reconciledSwitches.get();
+    }
+
+    /**
+     * @return the number of flows written again because a reconnected switch lacked them
+     */
+    public long getRewrittenFlows() {
+        return rewrittenFlows.get();
+    }
+
+    @Override
+    public void close() {
+        if (nodeListenerReg != null) {
+            nodeListenerReg.close();
+        }
+        executor.shutdownNow();
+    }
+
+    /**
+     * Writes the flows of the shadow table that the switch does not hold.
+     */
+    private void reconcile(String switchId) throws Exception {
+        InstanceIdentifier<Table> tablePath =
+                InstanceIdentifierUtils.generateFlowTableInstanceIdentifier(switchId, tableKey);
+        Optional<Table> table;
+        ReadOnlyTransaction transaction = dataBroker.newReadOnlyTransaction();
+        try {
+            table = transaction.read(LogicalDatastoreType.OPERATIONAL, tablePath).checkedGet();
+        } finally {
+            transaction.close();
+        }
+        List<Flow> installedFlows = table.isPresent() && table.get().getFlow() != null ? table.get().getFlow()
+                : Collections.<Flow>emptyList();
+        List<AddFlowInput> missing = shadowFlowTable.diff(switchId, installedFlows);
+        for (AddFlowInput input : missing) {
+            flowBatcher.submit(switchId, input);
+        }
+        reconciledSwitches.incrementAndGet();
+        rewrittenFlows.addAndGet(missing.size());
+        LOG.info("Reconciled {}: {} of {} flows written again", switchId, missing.size(),
+                shadowFlowTable.size(switchId));
+    }
+
+    private final class NodeListener implements DataTreeChangeListener<Node> {
+        @Override
+        public void onDataTreeChanged(Collection<DataTreeModification<Node>> changes) {
+            for (DataTreeModification<Node> change : changes) {
+                DataObjectModification<Node> node = change.getRootNode();
+                if (node.getModificationType() != DataObjectModification.ModificationType.WRITE
+                        || node.getDataBefore() != null || node.getDataAfter() == null) {
+                    // only connections matter, not updates of a connected switch
+                    continue;
+                }
+                final String switchId = node.getDataAfter().getId().getValue();
+                if (shadowFlowTable.size(switchId) == 0) {
+                    continue;
+                }
+                executor.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            reconcile(switchId);
+                        } catch (Exception e) {
+                            LOG.warn("Failed to reconcile the flows of {}", switchId, e);
+                        }
+                    }
+                }, delayMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+}
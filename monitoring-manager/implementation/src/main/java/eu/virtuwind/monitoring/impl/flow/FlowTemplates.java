@@ -0,0 +1,157 @@
+package eu.virtuwind.monitoring.impl.flow;
+
+import com.google.common.collect.ImmutableList;
+import eu.virtuwind.monitoring.impl.util.InstanceIdentifierUtils;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.action.types.rev131112.action.action.OutputActionCaseBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.action.types.rev131112.action.action.output.action._case.OutputActionBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.action.types.rev131112.action.list.Action;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.action.types.rev131112.action.list.ActionBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.inventory.rev130819.tables.Table;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.inventory.rev130819.tables.TableKey;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.inventory.rev130819.tables.table.Flow;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.inventory.rev130819.tables.table.FlowKey;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.service.rev130819.FlowTableRef;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.types.rev131026.flow.Instructions;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.types.rev131026.flow.InstructionsBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.types.rev131026.instruction.instruction.ApplyActionsCaseBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.types.rev131026.instruction.instruction.apply.actions._case.ApplyActionsBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.types.rev131026.instruction.list.Instruction;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.types.rev131026.instruction.list.InstructionBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.NodeConnectorId;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.NodeRef;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.nodes.Node;
+import org.opendaylight.yangtools.yang.binding.InstanceIdentifier;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Caches the parts of the mac to mac flows that only depend on the switch or on the output port: the identifier and
+ * the references of the flow table of every switch, and the output action and instructions of every port. Binding
+ * objects are immutable, so the cached parts are shared by all the flows built from them, and building a flow only
+ * allocates its match, its key and its cookie. There is one entry per switch and per port of the topology.
+ */
+final class FlowTemplates {
+    private final TableKey tableKey;
+    private final ConcurrentMap<String, SwitchTemplate> switches = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Action> outputActions = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Instructions> outputInstructions = new ConcurrentHashMap<>();
+
+    /**
+     * @param tableId the table the flows are written to
+     */
+    FlowTemplates(short tableId) {
+        this.tableKey = new TableKey(tableId);
+    }
+
+    TableKey getTableKey() {
+        return tableKey;
+    }
+
+    /**
+     * @param switchId the switch, e.g. openflow:1
+     * @return the identifier and references of the flow table of the switch
+     */
+    SwitchTemplate getSwitch(String switchId) {
+        SwitchTemplate template = switches.get(switchId);
+        if (template == null) {
+            template = new SwitchTemplate(
+                    InstanceIdentifierUtils.generateFlowTableInstanceIdentifier(switchId, tableKey));
+            SwitchTemplate current = switches.putIfAbsent(switchId, template);
+            if (current != null) {
+                template = current;
+            }
+        }
+        return template;
+    }
+
+    /**
+     * @param port the output port, e.g. openflow:1:2
+     * @return the action that outputs to the port, first in its list
+     */
+    Action getOutputAction(String port) {
+        Action action = outputActions.get(port);
+        if (action == null) {
+            action = new ActionBuilder() //
+                    .setOrder(0)
+                    .setAction(new OutputActionCaseBuilder() //
+                            .setOutputAction(new OutputActionBuilder() //
+                                    .setMaxLength(0xffff) //
+                                    .setOutputNodeConnector(new NodeConnectorId(port)) //
+                                    .build()) //
+                            .build()) //
+                    .build();
+            Action current = outputActions.putIfAbsent(port, action);
+            if (current != null) {
+                action = current;
+            }
+        }
+        return action;
+    }
+
+    /**
+     * @param port the output port, e.g. openflow:1:2
+     * @return the instructions that only output to the port
+     */
+    Instructions getOutputInstructions(String port) {
+        Instructions instructions = outputInstructions.get(port);
+        if (instructions == null) {
+            instructions = toInstructions(ImmutableList.of(getOutputAction(port)));
+            Instructions current = outputInstructions.putIfAbsent(port, instructions);
+            if (current != null) {
+                instructions = current;
+            }
+        }
+        return instructions;
+    }
+
+    /**
+     * @param actions the actions to apply, in order
+     * @return the instructions that apply the actions
+     */
+    static Instructions toInstructions(List<Action> actions) {
+        Instruction applyActionsInstruction = new InstructionBuilder() //
+                .setOrder(0)
+                .setInstruction(new ApplyActionsCaseBuilder()//
+                        .setApplyActions(new ApplyActionsBuilder() //
+                                .setAction(actions) //
+                                .build()) //
+                        .build()) //
+                .build();
+        return new InstructionsBuilder() //
+                .setInstruction(ImmutableList.of(applyActionsInstruction)) //
+                .build();
+    }
+
+    /**
+     * The flow table of a switch, and the references to it carried by every addFlow input.
+     */
+    static final class SwitchTemplate {
+        private final InstanceIdentifier<Table> tablePath;
+        private final NodeRef nodeRef;
+        private final FlowTableRef tableRef;
+
+        private SwitchTemplate(InstanceIdentifier<Table> tablePath) {
+            this.tablePath = tablePath;
+            this.nodeRef = new NodeRef(tablePath.firstIdentifierOf(Node.class));
+            this.tableRef = new FlowTableRef(tablePath);
+        }
+
+        /**
+         * @param flowKey the key of a flow
+         * @return the path of the flow in the table
+         */
+        InstanceIdentifier<Flow> getFlowPath(FlowKey flowKey) {
+            return tablePath.child(Flow.class, flowKey);
+        }
+
+        NodeRef getNodeRef() {
+            return nodeRef;
+        }
+
+        FlowTableRef getTableRef() {
+            return tableRef;
+        }
+    }
+}
@@ -2,10 +2,15 @@ package eu.virtuwind.monitoring.impl.flow;
 
 
 import org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.ietf.yang.types.rev100924.MacAddress;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.service.rev130819.AddFlowOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.service.rev130819.RemoveFlowOutput;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.NodeConnectorRef;
+import org.opendaylight.yangtools.yang.common.RpcResult;
+
+import java.util.concurrent.Future;
 
 /**
- * A service that adds packet forwarding flows to configuration data store.
+ * A service that adds packet forwarding flows to configuration data store, and removes them.
  */
 public interface FlowWriterService {
 
@@ -18,8 +23,10 @@ public interface FlowWriterService {
      * @param sourceMac
      * @param destMac
      * @param destNodeConnector
+     * @return the result of the flow write
      */
-    public void addMacToMacFlow(String switchId, MacAddress sourceMac, MacAddress destMac, String destNodeConnector);
+    public Future<RpcResult<AddFlowOutput>> addMacToMacFlow(String switchId, MacAddress sourceMac, MacAddress destMac,
+                                                            String destNodeConnector);
 
     /**
      * Writes a flow that forwards packets to destPort if destination mac in
@@ -35,8 +42,21 @@ public interface FlowWriterService {
      * @param destNodeConnector
      * @param changeDest
      * @param macToChangeTo
+     * @return the result of the flow write
      */
-    public void addMacToMacFlow(String switchId, MacAddress sourceMac, MacAddress destMac, String destNodeConnector, boolean changeDest, MacAddress macToChangeTo);
+    public Future<RpcResult<AddFlowOutput>> addMacToMacFlow(String switchId, MacAddress sourceMac, MacAddress destMac,
+                                                            String destNodeConnector, boolean changeDest,
+                                                            MacAddress macToChangeTo);
 
+    /**
+     * Removes the flow written by addMacToMacFlow with the same macs from a switch.
+     *
+     * @param switchId  the switch, e.g. openflow:1
+     * @param sourceMac the source mac of the match, or null for a flow matching on the destination only
+     * @param destMac   the destination mac of the match
+     * @return the result of the flow removal
+     */
+    public Future<RpcResult<RemoveFlowOutput>> removeMacToMacFlow(String switchId, MacAddress sourceMac,
+                                                                  MacAddress destMac);
 
 }
\ No newline at end of file
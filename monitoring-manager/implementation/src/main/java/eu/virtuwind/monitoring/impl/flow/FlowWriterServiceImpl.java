@@ -2,7 +2,7 @@ package eu.virtuwind.monitoring.impl.flow;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
-import eu.virtuwind.monitoring.impl.util.InstanceIdentifierUtils;
+import com.google.common.util.concurrent.Futures;
 import org.opendaylight.openflowplugin.api.OFConstants;
 import org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.ietf.inet.types.rev100924.Uri;
 import org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.ietf.yang.types.rev100924.MacAddress;
@@ -15,38 +15,31 @@ import org.opendaylight.yang.gen.v1.urn.opendaylight.action.types.rev131112.acti
 import org.opendaylight.yang.gen.v1.urn.opendaylight.action.types.rev131112.action.list.Action;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.action.types.rev131112.action.list.ActionBuilder;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.inventory.rev130819.FlowId;
-import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.inventory.rev130819.tables.Table;
-import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.inventory.rev130819.tables.TableKey;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.inventory.rev130819.tables.table.Flow;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.inventory.rev130819.tables.table.FlowBuilder;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.inventory.rev130819.tables.table.FlowKey;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.service.rev130819.AddFlowInput;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.service.rev130819.AddFlowInputBuilder;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.service.rev130819.AddFlowOutput;
-import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.service.rev130819.FlowTableRef;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.service.rev130819.RemoveFlowInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.service.rev130819.RemoveFlowInputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.service.rev130819.RemoveFlowOutput;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.service.rev130819.SalFlowService;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.types.rev131026.FlowCookie;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.types.rev131026.FlowModFlags;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.types.rev131026.FlowRef;
-import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.types.rev131026.flow.InstructionsBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.types.rev131026.flow.Instructions;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.types.rev131026.flow.Match;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.types.rev131026.flow.MatchBuilder;
-import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.types.rev131026.instruction.instruction.ApplyActionsCaseBuilder;
-import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.types.rev131026.instruction.instruction.apply.actions._case.ApplyActions;
-import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.types.rev131026.instruction.instruction.apply.actions._case.ApplyActionsBuilder;
-import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.types.rev131026.instruction.list.Instruction;
-import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.types.rev131026.instruction.list.InstructionBuilder;
-import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.NodeConnectorId;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.NodeConnectorRef;
-import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.NodeRef;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.node.NodeConnector;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.node.NodeConnectorKey;
-import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.nodes.Node;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.model.match.types.rev131026.ethernet.match.fields.EthernetDestinationBuilder;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.model.match.types.rev131026.ethernet.match.fields.EthernetSourceBuilder;
-import org.opendaylight.yang.gen.v1.urn.opendaylight.model.match.types.rev131026.match.EthernetMatch;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.model.match.types.rev131026.match.EthernetMatchBuilder;
 import org.opendaylight.yangtools.yang.binding.InstanceIdentifier;
 import org.opendaylight.yangtools.yang.common.RpcResult;
+import org.opendaylight.yangtools.yang.common.RpcResultBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -62,14 +55,19 @@ import java.util.concurrent.atomic.AtomicLong;
  */
 public class FlowWriterServiceImpl implements FlowWriterService {
     private static final Logger LOG = LoggerFactory.getLogger(FlowWriterServiceImpl.class);
+    private static final FlowModFlags PERMANENT_FLAGS = new FlowModFlags(false, false, false, false, false);
+    // the switches report the removal of the flows that expire
+    private static final FlowModFlags EXPIRING_FLAGS = new FlowModFlags(false, false, false, false, true);
     private final String FLOW_ID_PREFIX = "L2switch-";
     private SalFlowService salFlowService;
     private short flowTableId;
     private int flowPriority;
     private int flowIdleTimeout;
     private int flowHardTimeout;
+    private FlowBatcher flowBatcher;
+    private ShadowFlowTable shadowFlowTable;
+    private volatile FlowTemplates templates = new FlowTemplates((short) 0);
 
-    private AtomicLong flowIdInc = new AtomicLong();
     private AtomicLong flowCookieInc = new AtomicLong(0x2a00000000000000L);
     private final Integer DEFAULT_TABLE_ID = 0;
     private final Integer DEFAULT_PRIORITY = 10;
@@ -88,6 +86,7 @@ public class FlowWriterServiceImpl implements FlowWriterService {
 
     public void setFlowTableId(short flowTableId) {
         this.flowTableId = flowTableId;
+        this.templates = new FlowTemplates(flowTableId);
     }
 
     public void setFlowPriority(int flowPriority) {
@@ -102,6 +101,26 @@ public class FlowWriterServiceImpl implements FlowWriterService {
         this.flowHardTimeout = flowHardTimeout;
     }
 
+    /**
+     * Sets the batcher through which flows are sent. Without a batcher, every flow is sent with its own addFlow RPC
+     * from the calling thread.
+     *
+     * @param flowBatcher the batcher, or null to send flows directly
+     */
+    public void setFlowBatcher(FlowBatcher flowBatcher) {
+        this.flowBatcher = flowBatcher;
+    }
+
+    /**
+     * Sets the table every flow written is recorded in, so that the flows of a switch can be reconciled when it
+     * reconnects and the flows removed by the switches can be told from the flows that replaced them.
+     *
+     * @param shadowFlowTable the table, or null
+     */
+    public void setShadowFlowTable(ShadowFlowTable shadowFlowTable) {
+        this.shadowFlowTable = shadowFlowTable;
+    }
+
     /**
      * Writes a flow that forwards packets to destPort if destination mac in
      * packet is destMac and source Mac in packet is sourceMac. If sourceMac is
@@ -113,30 +132,30 @@ public class FlowWriterServiceImpl implements FlowWriterService {
      * @param destNodeConnector
      */
     @Override
-    public void addMacToMacFlow(String switchId, MacAddress sourceMac, MacAddress destMac, String destNodeConnector) {
+    public Future<RpcResult<AddFlowOutput>> addMacToMacFlow(String switchId, MacAddress sourceMac, MacAddress destMac,
+                                                            String destNodeConnector) {
 
-        Preconditions.checkNotNull(sourceMac, "Source mac address should not be null.");
         Preconditions.checkNotNull(destMac, "Destination mac address should not be null.");
         Preconditions.checkNotNull(destNodeConnector, "Destination port should not be null.");
 
         // do not add flow if both macs are same.
         if (sourceMac != null && destMac.equals(sourceMac)) {
             LOG.info("In addMacToMacFlow: No flows added. Source and Destination mac are same.");
-            return;
+            return Futures.immediateFuture(RpcResultBuilder.<AddFlowOutput>success().build());
         }
 
-        // get flow table key
-        TableKey flowTableKey = new TableKey((short) flowTableId);
+        // get the cached flow table of the switch
+        FlowTemplates flowTemplates = templates;
+        FlowTemplates.SwitchTemplate switchTemplate = flowTemplates.getSwitch(switchId);
 
         // build a flow path based on node connector to program flow
-        InstanceIdentifier<Flow> flowPath = buildFlowPath(switchId, flowTableKey);
+        InstanceIdentifier<Flow> flowPath = buildFlowPath(switchTemplate, sourceMac, destMac);
 
         // build a flow that target given mac id
-        Flow flowBody = createMacToMacFlow(flowTableKey.getId(), flowPriority, sourceMac, destMac,
-                destNodeConnector);
+        Flow flowBody = createMacToMacFlow(flowTemplates, flowPriority, sourceMac, destMac, destNodeConnector);
 
         // commit the flow in config data
-        writeFlowToConfigData(flowPath, flowBody);
+        return writeFlowToConfigData(switchId, switchTemplate, flowPath, flowBody);
     }
 
 
@@ -156,7 +175,9 @@ public class FlowWriterServiceImpl implements FlowWriterService {
      * @param macToChangeTo        - src or dest mac to replace the match
      */
     @Override
-    public void addMacToMacFlow(String switchId, MacAddress sourceMac, MacAddress destMac, String destNodeConnector, boolean changeDest, MacAddress macToChangeTo) {
+    public Future<RpcResult<AddFlowOutput>> addMacToMacFlow(String switchId, MacAddress sourceMac, MacAddress destMac,
+                                                            String destNodeConnector, boolean changeDest,
+                                                            MacAddress macToChangeTo) {
 
         Preconditions.checkNotNull(destMac, "Destination mac address should not be null.");
         Preconditions.checkNotNull(destNodeConnector, "Destination port should not be null.");
@@ -164,39 +185,94 @@ public class FlowWriterServiceImpl implements FlowWriterService {
         // do not add flow if both macs are same.
         if (sourceMac != null && destMac.equals(sourceMac)) {
             LOG.info("In addMacToMacFlow: No flows added. Source and Destination mac are same.");
-            return;
+            return Futures.immediateFuture(RpcResultBuilder.<AddFlowOutput>success().build());
         }
 
-        // get flow table key
-        TableKey flowTableKey = new TableKey((short) flowTableId);
+        // get the cached flow table of the switch
+        FlowTemplates flowTemplates = templates;
+        FlowTemplates.SwitchTemplate switchTemplate = flowTemplates.getSwitch(switchId);
 
         // build a flow path based on node connector to program flow
-        InstanceIdentifier<Flow> flowPath = buildFlowPath(switchId, flowTableKey);
+        InstanceIdentifier<Flow> flowPath = buildFlowPath(switchTemplate, sourceMac, destMac);
 
         // build a flow that target given mac id
-        Flow flowBody = createMacToMacFlow(flowTableKey.getId(), flowPriority, sourceMac, destMac,
-                destNodeConnector, changeDest, macToChangeTo);
+        Flow flowBody = createMacToMacFlow(flowTemplates, flowPriority, sourceMac, destMac, destNodeConnector,
+                changeDest, macToChangeTo);
 
         // commit the flow in config data
-        writeFlowToConfigData(flowPath, flowBody);
+        return writeFlowToConfigData(switchId, switchTemplate, flowPath, flowBody);
     }
 
 
     /**
-     * @param node
+     * Removes the flow with the same match as the one addMacToMacFlow writes, with a strict removal so that no other
+     * flow is touched. The removal is sent right away, after the flow still queued in the flow batcher for the same
+     * match is dropped, so that the flow is not added after its removal. The flow is dropped from the
+     * shadow table first, so that it is not written again when the switch reconnects, and its removal reported by the
+     * switch is not taken for an expiry.
+     *
+     * @param switchId  the switch, e.g. openflow:1
+     * @param sourceMac the source mac of the match, or null
+     * @param destMac   the destination mac of the match
+     */
+    @Override
+    public Future<RpcResult<RemoveFlowOutput>> removeMacToMacFlow(String switchId, MacAddress sourceMac,
+                                                                  MacAddress destMac) {
+
+        Preconditions.checkNotNull(destMac, "Destination mac address should not be null.");
+
+        FlowTemplates flowTemplates = templates;
+        FlowTemplates.SwitchTemplate switchTemplate = flowTemplates.getSwitch(switchId);
+        InstanceIdentifier<Flow> flowPath = buildFlowPath(switchTemplate, sourceMac, destMac);
+
+        RemoveFlowInput input = new RemoveFlowInputBuilder() //
+                .setNode(switchTemplate.getNodeRef()) //
+                .setFlowRef(new FlowRef(flowPath)) //
+                .setFlowTable(switchTemplate.getTableRef()) //
+                .setTableId(flowTemplates.getTableKey().getId()) //
+                .setPriority(flowPriority) //
+                .setMatch(createMacToMacMatch(sourceMac, destMac)) //
+                .setStrict(true) //
+                .setTransactionUri(new Uri(createFlowId(sourceMac, destMac).getValue())) //
+                .build();
+        if (shadowFlowTable != null) {
+            shadowFlowTable.remove(switchId, sourceMac == null ? null : sourceMac.getValue(), destMac.getValue(),
+                    null);
+        }
+        if (flowBatcher != null) {
+            flowBatcher.cancel(switchId, input.getTableId(), input.getPriority(), input.getMatch());
+        }
+        return salFlowService.removeFlow(input);
+    }
+
+
+    /**
+     * @param switchTemplate the flow table of the switch
+     * @param sourceMac
+     * @param destMac
      * @return
      */
-    private InstanceIdentifier<Flow> buildFlowPath(String node, TableKey flowTableKey) {
+    private InstanceIdentifier<Flow> buildFlowPath(FlowTemplates.SwitchTemplate switchTemplate, MacAddress sourceMac,
+                                                   MacAddress destMac) {
 
-        // generate unique flow key
-        FlowId flowId = new FlowId(FLOW_ID_PREFIX + String.valueOf(flowIdInc.getAndIncrement()));
-        FlowKey flowKey = new FlowKey(flowId);
+        // the flow key is derived from the match, so writing the same flow again replaces it instead of adding a copy
+        FlowKey flowKey = new FlowKey(createFlowId(sourceMac, destMac));
 
-        return InstanceIdentifierUtils.generateFlowInstanceIdentifier(node, flowTableKey, flowKey);
+        return switchTemplate.getFlowPath(flowKey);
     }
 
     /**
-     * @param tableId
+     * @param sourceMac the source mac of the match, or null
+     * @param destMac   the destination mac of the match
+     * @return the id of the flow with the given match, the same for every call
+     */
+    private FlowId createFlowId(MacAddress sourceMac, MacAddress destMac) {
+        String source = sourceMac == null ? "*" : sourceMac.getValue();
+        return new FlowId(FLOW_ID_PREFIX + source + "-" + destMac.getValue());
+    }
+
+    /**
+     * @param flowTemplates the cached parts of the flows
      * @param priority
      * @param sourceMac
      * @param destMac
@@ -206,82 +282,21 @@ public class FlowWriterServiceImpl implements FlowWriterService {
      * @return {@link org.opendaylight.yang.gen.v1.urn.opendaylight.flow.inventory.rev130819.tables.table.FlowBuilder}
      * builds flow that forwards all packets with destMac to given port
      */
-    private Flow createMacToMacFlow(Short tableId, int priority, MacAddress sourceMac, MacAddress destMac,
-                                   String destPort, boolean changeDest, MacAddress macToChangeTo) {
-
-        // start building flow
-        FlowBuilder macToMacFlow = new FlowBuilder() //
-                .setTableId(tableId) //
-                .setFlowName("mac2mac");
-
-        // use its own hash code for id.
-        macToMacFlow.setId(new FlowId(Long.toString(macToMacFlow.hashCode())));
-
-        // create a match that has mac to mac ethernet match
-        EthernetMatchBuilder ethernetMatchBuilder = new EthernetMatchBuilder() //
-                .setEthernetDestination(new EthernetDestinationBuilder() //
-                        .setAddress(destMac) //
-                        .build());
-        // set source in the match only if present
-        if (sourceMac != null) {
-            ethernetMatchBuilder.setEthernetSource(new EthernetSourceBuilder().setAddress(sourceMac).build());
-        }
-        EthernetMatch ethernetMatch = ethernetMatchBuilder.build();
-        Match match = new MatchBuilder().setEthernetMatch(ethernetMatch).build();
-
-        Uri destPortUri = new NodeConnectorId(new Uri(destPort));
-
-
-        Action outputToNode = new ActionBuilder() //
-                .setOrder(0)
-                .setAction(new OutputActionCaseBuilder() //
-                        .setOutputAction(new OutputActionBuilder() //
-                                .setMaxLength(0xffff) //
-                                .setOutputNodeConnector(destPortUri) //
-                                .build()) //
-                        .build()) //
-                .build();
-
-        // Create an Apply Action
-        ApplyActionsBuilder applyActionsBuilder = new ApplyActionsBuilder();
-        if (changeDest) {
-            applyActionsBuilder.setAction(ImmutableList.of(setDlDstAction(macToChangeTo), outputToNode))
-                    .build();
-        } else {
-            applyActionsBuilder.setAction(ImmutableList.of(setDlSrcAction(macToChangeTo), outputToNode))
-                    .build();
-        }
+    private Flow createMacToMacFlow(FlowTemplates flowTemplates, int priority, MacAddress sourceMac,
+                                   MacAddress destMac, String destPort, boolean changeDest, MacAddress macToChangeTo) {
 
+        Action outputToNode = flowTemplates.getOutputAction(destPort);
 
-        ApplyActions applyActions = applyActionsBuilder.build();
-
-
-        // Wrap our Apply Action in an Instruction
-        Instruction applyActionsInstruction = new InstructionBuilder() //
-                .setOrder(0)
-                .setInstruction(new ApplyActionsCaseBuilder()//
-                        .setApplyActions(applyActions) //
-                        .build()) //
-                .build();
+        // Create an Apply Action, the rewrite goes before the output
+        Action rewrite = changeDest ? setDlDstAction(macToChangeTo) : setDlSrcAction(macToChangeTo);
+        Instructions instructions = FlowTemplates.toInstructions(ImmutableList.of(rewrite, outputToNode));
 
-        // Put our Instruction in a list of Instructions
-        macToMacFlow.setMatch(match) //
-                .setInstructions(new InstructionsBuilder() //
-                        .setInstruction(ImmutableList.of(applyActionsInstruction)) //
-                        .build()) //
-                .setPriority(priority) //
-                .setBufferId(OFConstants.OFP_NO_BUFFER) //
-                .setHardTimeout(0) //
-                .setIdleTimeout(0) //
-                .setCookie(new FlowCookie(BigInteger.valueOf(flowCookieInc.getAndIncrement())))
-                .setFlags(new FlowModFlags(false, false, false, false, false));
-
-        return macToMacFlow.build();
+        return createMacToMacFlow(flowTemplates, priority, sourceMac, destMac, instructions);
     }
 
 
     /**
-     * @param tableId
+     * @param flowTemplates the cached parts of the flows
      * @param priority
      * @param sourceMac
      * @param destMac
@@ -289,18 +304,54 @@ public class FlowWriterServiceImpl implements FlowWriterService {
      * @return {@link org.opendaylight.yang.gen.v1.urn.opendaylight.flow.inventory.rev130819.tables.table.FlowBuilder}
      * builds flow that forwards all packets with destMac to given port
      */
-    private Flow createMacToMacFlow(Short tableId, int priority, MacAddress sourceMac, MacAddress destMac,
-                                   String destPort) {
+    private Flow createMacToMacFlow(FlowTemplates flowTemplates, int priority, MacAddress sourceMac,
+                                   MacAddress destMac, String destPort) {
 
-        // start building flow
-        FlowBuilder macToMacFlow = new FlowBuilder() //
-                .setTableId(tableId) //
-                .setFlowName("mac2mac");
+        // the instructions that only output to the port are shared by all the flows through it
+        return createMacToMacFlow(flowTemplates, priority, sourceMac, destMac,
+                flowTemplates.getOutputInstructions(destPort));
+    }
 
-        // use its own hash code for id.
-        macToMacFlow.setId(new FlowId(Long.toString(macToMacFlow.hashCode())));
+    /**
+     * Flows without a source mac belong to destination trees, which are shared by all the sources and rewritten when
+     * the topology changes: they never expire, so that the branches of a tree that carry no traffic do not idle out
+     * and take the whole tree with them.
+     *
+     * @param flowTemplates the cached parts of the flows
+     * @param priority
+     * @param sourceMac     the source mac of the match, or null
+     * @param destMac
+     * @param instructions  the instructions of the flow
+     * @return the flow with the mac to mac match and the given instructions
+     */
+    private Flow createMacToMacFlow(FlowTemplates flowTemplates, int priority, MacAddress sourceMac,
+                                   MacAddress destMac, Instructions instructions) {
+
+        Match match = createMacToMacMatch(sourceMac, destMac);
+        boolean expiring = sourceMac != null && isExpiring();
+
+        return new FlowBuilder() //
+                .setTableId(flowTemplates.getTableKey().getId()) //
+                .setFlowName("mac2mac") //
+                // use the same id as the flow key.
+                .setId(createFlowId(sourceMac, destMac)) //
+                .setMatch(match) //
+                .setInstructions(instructions) //
+                .setPriority(priority) //
+                .setBufferId(OFConstants.OFP_NO_BUFFER) //
+                .setHardTimeout(expiring ? flowHardTimeout : 0) //
+                .setIdleTimeout(expiring ? flowIdleTimeout : 0) //
+                .setCookie(new FlowCookie(BigInteger.valueOf(flowCookieInc.getAndIncrement())))
+                .setFlags(expiring ? EXPIRING_FLAGS : PERMANENT_FLAGS) //
+                .build();
+    }
 
-        // create a match that has mac to mac ethernet match
+    /**
+     * @param sourceMac the source mac of the match, or null
+     * @param destMac   the destination mac of the match
+     * @return a match that has mac to mac ethernet match
+     */
+    private Match createMacToMacMatch(MacAddress sourceMac, MacAddress destMac) {
         EthernetMatchBuilder ethernetMatchBuilder = new EthernetMatchBuilder() //
                 .setEthernetDestination(new EthernetDestinationBuilder() //
                         .setAddress(destMac) //
@@ -309,52 +360,7 @@ public class FlowWriterServiceImpl implements FlowWriterService {
         if (sourceMac != null) {
             ethernetMatchBuilder.setEthernetSource(new EthernetSourceBuilder().setAddress(sourceMac).build());
         }
-        EthernetMatch ethernetMatch = ethernetMatchBuilder.build();
-        Match match = new MatchBuilder().setEthernetMatch(ethernetMatch).build();
-
-        Uri destPortUri = new NodeConnectorId(new Uri(destPort));
-
-        Action outputToNode = new ActionBuilder() //
-                .setOrder(0)
-                .setAction(new OutputActionCaseBuilder() //
-                        .setOutputAction(new OutputActionBuilder() //
-                                .setMaxLength(0xffff) //
-                                .setOutputNodeConnector(destPortUri) //
-                                .build()) //
-                        .build()) //
-                .build();
-
-        // Create an Apply Action
-        ApplyActionsBuilder applyActionsBuilder = new ApplyActionsBuilder();
-
-        applyActionsBuilder.setAction(ImmutableList.of(outputToNode))
-                .build();
-
-
-        ApplyActions applyActions = applyActionsBuilder.build();
-
-
-        // Wrap our Apply Action in an Instruction
-        Instruction applyActionsInstruction = new InstructionBuilder() //
-                .setOrder(0)
-                .setInstruction(new ApplyActionsCaseBuilder()//
-                        .setApplyActions(applyActions) //
-                        .build()) //
-                .build();
-
-        // Put our Instruction in a list of Instructions
-        macToMacFlow.setMatch(match) //
-                .setInstructions(new InstructionsBuilder() //
-                        .setInstruction(ImmutableList.of(applyActionsInstruction)) //
-                        .build()) //
-                .setPriority(priority) //
-                .setBufferId(OFConstants.OFP_NO_BUFFER) //
-                .setHardTimeout(0) //
-                .setIdleTimeout(0) //
-                .setCookie(new FlowCookie(BigInteger.valueOf(flowCookieInc.getAndIncrement())))
-                .setFlags(new FlowModFlags(false, false, false, false, false));
-
-        return macToMacFlow.build();
+        return new MatchBuilder().setEthernetMatch(ethernetMatchBuilder.build()).build();
     }
 
     /**
@@ -410,22 +416,38 @@ public class FlowWriterServiceImpl implements FlowWriterService {
 
      */
 
+    /**
+     * @return true if the flows expire, in which case the switches are asked to report their removal
+     */
+    private boolean isExpiring() {
+        return flowIdleTimeout > 0 || flowHardTimeout > 0;
+    }
+
     /**
      * Starts and commits data change transaction which modifies provided flow
-     * path with supplied body.
+     * path with supplied body. The flow goes through the flow batcher if one is set.
      *
+     * @param switchId
+     * @param switchTemplate the flow table of the switch
      * @param flowPath
      * @param flow
      * @return transaction commit
      */
-    private Future<RpcResult<AddFlowOutput>> writeFlowToConfigData(InstanceIdentifier<Flow> flowPath, Flow flow) {
-        final InstanceIdentifier<Table> tableInstanceId = flowPath.<Table>firstIdentifierOf(Table.class);
-        final InstanceIdentifier<Node> nodeInstanceId = flowPath.<Node>firstIdentifierOf(Node.class);
+    private Future<RpcResult<AddFlowOutput>> writeFlowToConfigData(String switchId,
+                                                                   FlowTemplates.SwitchTemplate switchTemplate,
+                                                                   InstanceIdentifier<Flow> flowPath, Flow flow) {
         final AddFlowInputBuilder builder = new AddFlowInputBuilder(flow);
-        builder.setNode(new NodeRef(nodeInstanceId));
+        builder.setNode(switchTemplate.getNodeRef());
         builder.setFlowRef(new FlowRef(flowPath));
-        builder.setFlowTable(new FlowTableRef(tableInstanceId));
+        builder.setFlowTable(switchTemplate.getTableRef());
         builder.setTransactionUri(new Uri(flow.getId().getValue()));
-        return salFlowService.addFlow(builder.build());
+        AddFlowInput input = builder.build();
+        if (shadowFlowTable != null) {
+            shadowFlowTable.record(switchId, input);
+        }
+        if (flowBatcher != null) {
+            return flowBatcher.submit(switchId, input);
+        }
+        return salFlowService.addFlow(input);
     }
 }
\ No newline at end of file
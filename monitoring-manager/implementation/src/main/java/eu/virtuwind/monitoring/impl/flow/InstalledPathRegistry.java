@@ -0,0 +1,177 @@
+package eu.virtuwind.monitoring.impl.flow;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.JdkFutureAdapters;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import eu.virtuwind.monitoring.impl.routing.MacPair;
+import org.opendaylight.yangtools.yang.common.RpcResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers the path installed for every pair of hosts, keyed by the pair and the hash of the output ports of the
+ * path, so that a path is installed only once no matter how many ARPs ask for it. Requests for a pair whose path is
+ * installed, or being installed, along the same output ports share the future of that installation instead of
+ * writing the flows again. A request along different output ports (the topology changed) replaces the installation
+ * of the pair, and the flows the replaced path left on the switches the new path avoids are removed. A failed
+ * installation is forgotten, so that the next request retries it.
+ */
+public class InstalledPathRegistry {
+    private static final Logger LOG = LoggerFactory.getLogger(InstalledPathRegistry.class);
+
+    private final ConcurrentMap<MacPair, Installation> installations = new ConcurrentHashMap<>();
+    private final AtomicLong installs = new AtomicLong();
+    private final AtomicLong shortCircuited = new AtomicLong();
+
+    /**
+     * Writes the flows of a path.
+     */
+    public interface Installer {
+        /**
+         * @param outputPorts the output ports of the path
+         * @return the results of the flow writes, one per flow
+         */
+        List<? extends Future<?>> install(List<String> outputPorts);
+
+        /**
+         * Removes the flows of a replaced path from the switches the new path does not go through.
+         *
+         * @param replacedPorts the output ports of the replaced path
+         * @param outputPorts   the output ports of the new path
+         */
+        void removeStaleFlows(List<String> replacedPorts, List<String> outputPorts);
+    }
+
+    /**
+     * Installs the path of a pair of hosts, unless the same path is already installed or being installed.
+     *
+     * @param pair        the source and destination hosts
+     * @param outputPorts the output ports of the path
+     * @param installer   writes the flows of the path if needed
+     * @return a future that completes when all the flows of the path are written
+     */
+    public ListenableFuture<Void> install(MacPair pair, List<String> outputPorts, Installer installer) {
+        Installation installation = new Installation(outputPorts);
+        Installation replaced;
+        while (true) {
+            Installation current = installations.get(pair);
+            if (current != null && current.isSamePath(installation)) {
+                shortCircuited.incrementAndGet();
+                return current.result;
+            }
+            boolean registered = current == null ? installations.putIfAbsent(pair, installation) == null
+                    : installations.replace(pair, current, installation);
+            if (registered) {
+                replaced = current;
+                break;
+            }
+        }
+
+        installs.incrementAndGet();
+        try {
+            List<ListenableFuture<?>> writes = new ArrayList<>();
+            for (Future<?> write : installer.install(installation.outputPorts)) {
+                writes.add(JdkFutureAdapters.listenInPoolThread(write));
+            }
+            Futures.addCallback(Futures.allAsList(writes), new Completion(pair, installation));
+            if (replaced != null) {
+                installer.removeStaleFlows(replaced.outputPorts, installation.outputPorts);
+            }
+        } catch (RuntimeException e) {
+            new Completion(pair, installation).onFailure(e);
+        }
+        return installation.result;
+    }
+
+    /**
+     * Forgets the path of a pair, so that the next request installs it again.
+     *
+     * @param pair the source and destination hosts
+     */
+    public void remove(MacPair pair) {
+        installations.remove(pair);
+    }
+
+    /**
+     * @param pair the source and destination hosts
+     * @return the output ports of the path installed or being installed for the pair, or {@code null}
+     */
+    public List<String> getOutputPorts(MacPair pair) {
+        Installation installation = installations.get(pair);
+        return installation == null ? null : installation.outputPorts;
+    }
+
+    /**
+     * @return the number of paths installed or being installed
+     */
+    public int size() {
+        return installations.size();
+    }
+
+    /**
+     * @return the number of installations started so far
+     */
+    public long getInstalls() {
+        return installs.get();
+    }
+
+    /**
+     * @return the number of requests that reused an installed or in-flight path
+     */
+    public long getShortCircuited() {
+        return shortCircuited.get();
+    }
+
+    private static final class Installation {
+        private final List<String> outputPorts;
+        private final int pathHash;
+        private final SettableFuture<Void> result = SettableFuture.create();
+
+        private Installation(List<String> outputPorts) {
+            this.outputPorts = ImmutableList.copyOf(outputPorts);
+            this.pathHash = this.outputPorts.hashCode();
+        }
+
+        private boolean isSamePath(Installation other) {
+            return pathHash == other.pathHash && outputPorts.equals(other.outputPorts);
+        }
+    }
+
+    private final class Completion implements FutureCallback<List<Object>> {
+        private final MacPair pair;
+        private final Installation installation;
+
+        private Completion(MacPair pair, Installation installation) {
+            this.pair = pair;
+            this.installation = installation;
+        }
+
+        @Override
+        public void onSuccess(List<Object> results) {
+            for (Object result : results) {
+                if (result instanceof RpcResult && !((RpcResult<?>) result).isSuccessful()) {
+                    onFailure(new IllegalStateException("Flow not added: " + ((RpcResult<?>) result).getErrors()));
+                    return;
+                }
+            }
+            installation.result.set(null);
+        }
+
+        @Override
+        public void onFailure(Throwable t) {
+            LOG.warn("Failed to install the path of {}", pair, t);
+            installations.remove(pair, installation);
+            installation.result.setException(t);
+        }
+    }
+}
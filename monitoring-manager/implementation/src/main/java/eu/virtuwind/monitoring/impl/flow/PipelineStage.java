@@ -0,0 +1,123 @@
+package eu.virtuwind.monitoring.impl.flow;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A stage of a processing pipeline: a fixed pool of threads fed by a bounded queue. Submitting a task never blocks
+ * the caller. When the queue is full, the oldest queued task is dropped to make room for the new one, so that the
+ * stage keeps working on the most recent input under overload; {@link #discarded(Runnable)} is called for every
+ * dropped task.
+ */
+public class PipelineStage implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(PipelineStage.class);
+
+    private final String name;
+    private final ThreadPoolExecutor executor;
+    private final AtomicLong submittedTasks = new AtomicLong();
+    private final AtomicLong droppedTasks = new AtomicLong();
+
+    /**
+     * @param name          the name of the stage, also used for its threads
+     * @param threads       the number of threads of the stage
+     * @param queueCapacity the number of tasks that can wait for a thread
+     */
+    public PipelineStage(String name, int threads, int queueCapacity) {
+        Preconditions.checkArgument(threads > 0, "threads should be positive.");
+        Preconditions.checkArgument(queueCapacity > 0, "queueCapacity should be positive.");
+        this.name = name;
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity),
+                new ThreadFactoryBuilder().setNameFormat(name + "-%d").setDaemon(true).build(),
+                new DropOldestPolicy());
+    }
+
+    /**
+     * Queues a task for execution by the stage.
+     *
+     * @param task the task
+     */
+    public void execute(Runnable task) {
+        submittedTasks.incrementAndGet();
+        executor.execute(task);
+    }
+
+    /**
+     * Called for every task dropped because the queue was full or the stage was closed. Does nothing by default.
+     *
+     * @param task the dropped task
+     */
+    protected void discarded(Runnable task) {
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the number of tasks submitted to the stage so far
+     */
+    public long getSubmittedTasks() {
+        return submittedTasks.get();
+    }
+
+    /**
+     * @return the number of tasks dropped so far
+     */
+    public long getDroppedTasks() {
+        return droppedTasks.get();
+    }
+
+    /**
+     * @return the number of tasks executed so far
+     */
+    public long getCompletedTasks() {
+        return executor.getCompletedTaskCount();
+    }
+
+    /**
+     * @return the number of tasks waiting for a thread
+     */
+    public int getQueueSize() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Stops the stage. The queued tasks are still executed, new tasks are dropped.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    private void drop(Runnable task) {
+        droppedTasks.incrementAndGet();
+        LOG.debug("Stage {} is overloaded, dropped a task", name);
+        discarded(task);
+    }
+
+    private final class DropOldestPolicy implements RejectedExecutionHandler {
+        @Override
+        public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                drop(task);
+                return;
+            }
+            // another submitter may take the freed slot first, in which case the next oldest task is dropped
+            while (!executor.getQueue().offer(task)) {
+                Runnable oldest = executor.getQueue().poll();
+                if (oldest != null) {
+                    drop(oldest);
+                }
+            }
+        }
+    }
+}
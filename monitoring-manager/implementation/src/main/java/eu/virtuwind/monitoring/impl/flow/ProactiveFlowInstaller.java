@@ -0,0 +1,139 @@
+package eu.virtuwind.monitoring.impl.flow;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import eu.virtuwind.monitoring.impl.TopologyGraph;
+import eu.virtuwind.monitoring.impl.TopologySnapshot;
+import eu.virtuwind.monitoring.impl.routing.CompactGraph;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Installs the destination tree of every host as soon as the host shows up in the {@link TopologyGraph}, so that the
+ * first packets towards it are forwarded by flows already in place instead of waiting for the ARP, the path
+ * computation and the flow writes. The hosts are read again in the background whenever the topology version changes,
+ * and every check hands the hosts whose tree is not installed, new hosts as well as hosts whose tree was forgotten
+ * since (e.g. after a failed installation), to {@link ReactiveFlowWriter#installDestinationTree(String)} at a limited
+ * rate, so that a burst of hosts, e.g. when the topology is first read, does not flood the switches with flow writes.
+ * The trees of the hosts that leave the topology are removed.
+ */
+public class ProactiveFlowInstaller implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ProactiveFlowInstaller.class);
+
+    private final TopologyGraph topologyGraph;
+    private final ReactiveFlowWriter reactiveFlowWriter;
+    private final RateLimiter rateLimiter;
+    private final ScheduledExecutorService executor;
+    // only used by the thread of the executor
+    private Set<String> hosts = Collections.emptySet();
+    private long lastVersion = -1;
+    private final AtomicLong installedTrees = new AtomicLong();
+
+    /**
+     * @param topologyGraph      the topology the hosts are discovered in
+     * @param reactiveFlowWriter installs the trees; must be in destination tree mode
+     * @param treesPerSecond     the maximum number of trees installed per second
+     */
+    public ProactiveFlowInstaller(TopologyGraph topologyGraph, ReactiveFlowWriter reactiveFlowWriter,
+                                  double treesPerSecond) {
+        Preconditions.checkArgument(treesPerSecond > 0, "treesPerSecond should be positive.");
+        this.topologyGraph = topologyGraph;
+        this.reactiveFlowWriter = reactiveFlowWriter;
+        this.rateLimiter = RateLimiter.create(treesPerSecond);
+        this.executor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("proactive-install-%d").setDaemon(true).build());
+    }
+
+    /**
+     * Starts watching the topology for hosts without a tree.
+     *
+     * @param checkPeriodMillis the time between two checks of the trees of the hosts, in milliseconds
+     */
+    public void start(long checkPeriodMillis) {
+        Preconditions.checkArgument(checkPeriodMillis > 0, "checkPeriodMillis should be positive.");
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    installMissingTrees();
+                } catch (Exception e) {
+                    LOG.warn("Failed to install the trees of the hosts", e);
+                }
+            }
+        }, 0, checkPeriodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the number of trees handed for installation ahead of any ARP so far
+     */
+    public long getInstalledTrees() {
+        return installedTrees.get();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Reads the hosts attached to a switch again if the topology changed, removes the trees of the hosts that left,
+     * and installs the trees of the hosts that have none. The tree of a host that cannot be reached is looked up again
+     * at every check, which costs a lookup in the path cache.
+     */
+    private void installMissingTrees() {
+        long version = topologyGraph.getVersion();
+        if (version != lastVersion) {
+            lastVersion = version;
+            Set<String> currentHosts = findHosts();
+            for (String host : hosts) {
+                if (!currentHosts.contains(host)) {
+                    reactiveFlowWriter.removeDestinationTree(host);
+                }
+            }
+            hosts = currentHosts;
+        }
+        int installed = 0;
+        for (String host : hosts) {
+            if (reactiveFlowWriter.hasDestinationTree(host)) {
+                continue;
+            }
+            rateLimiter.acquire();
+            if (Thread.currentThread().isInterrupted()) {
+                // closed meanwhile
+                return;
+            }
+            reactiveFlowWriter.installDestinationTree(host);
+            installedTrees.incrementAndGet();
+            installed++;
+        }
+        if (installed > 0) {
+            LOG.debug("Handed the trees of {} hosts for installation", installed);
+        }
+    }
+
+    /**
+     * @return the hosts attached to a switch in the current snapshot
+     */
+    private Set<String> findHosts() {
+        TopologySnapshot snapshot = topologyGraph.getSnapshot();
+        CompactGraph graph = snapshot.getGraph();
+        Set<String> currentHosts = new HashSet<>();
+        for (int node = 0; node < graph.getNodeCount(); node++) {
+            String nodeId = graph.getNodeId(node);
+            if (!nodeId.contains("open") && snapshot.getLinkEndNode(nodeId) != null) {
+                currentHosts.add(nodeId);
+            }
+        }
+        return currentHosts;
+    }
+}
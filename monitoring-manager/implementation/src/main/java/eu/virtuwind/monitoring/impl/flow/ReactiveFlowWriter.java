@@ -1,12 +1,23 @@
 package eu.virtuwind.monitoring.impl.flow;
 
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.hash.Hashing;
 import eu.virtuwind.monitoring.impl.TopologyGraph;
-import eu.virtuwind.monitoring.impl.graphstream.algorithm.Dijkstra;
+import eu.virtuwind.monitoring.impl.TopologySnapshot;
 import eu.virtuwind.monitoring.impl.inventory.InventoryReader;
-import org.graphstream.graph.Edge;
-import org.graphstream.graph.Node;
-import org.graphstream.graph.implementations.SingleGraph;
+import eu.virtuwind.monitoring.impl.metrics.LatencyHistogram;
+import eu.virtuwind.monitoring.impl.routing.CompactDijkstra;
+import eu.virtuwind.monitoring.impl.routing.CompactGraph;
+import eu.virtuwind.monitoring.impl.routing.DynamicDijkstra;
+import eu.virtuwind.monitoring.impl.routing.EqualCostPaths;
+import eu.virtuwind.monitoring.impl.routing.MacPair;
+import eu.virtuwind.monitoring.impl.routing.PathCache;
+import eu.virtuwind.monitoring.impl.routing.ShortestPathTree;
+import eu.virtuwind.monitoring.impl.routing.ShortestPathTreeCache;
 import org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.ietf.yang.types.rev100924.MacAddress;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.service.rev130819.AddFlowOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.service.rev130819.RemoveFlowOutput;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.packet.arp.rev140528.ArpPacketListener;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.packet.arp.rev140528.ArpPacketReceived;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.packet.arp.rev140528.arp.packet.received.packet.chain.packet.ArpPacket;
@@ -14,43 +25,259 @@ import org.opendaylight.yang.gen.v1.urn.opendaylight.packet.basepacket.rev140528
 import org.opendaylight.yang.gen.v1.urn.opendaylight.packet.basepacket.rev140528.packet.chain.grp.packet.chain.Packet;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.packet.basepacket.rev140528.packet.chain.grp.packet.chain.packet.RawPacket;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.packet.ethernet.rev140528.ethernet.packet.received.packet.chain.packet.EthernetPacket;
+import org.opendaylight.yangtools.yang.common.RpcResult;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Iterator;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * This class listens for ARP packets and writes a mac to mac flows.
+ * This class listens for ARP packets and writes a mac to mac flows. Packets go through a pipeline of three
+ * {@link PipelineStage}s, each with its own threads and bounded queue: parse, route (path computation) and program
+ * (flow writing).
  */
-public class ReactiveFlowWriter implements ArpPacketListener {
+public class ReactiveFlowWriter implements ArpPacketListener, FastReroute.PathProgrammer, AutoCloseable {
+    private static final int STAGE_QUEUE_CAPACITY = 1024;
+    private static final int ROUTE_THREADS = Runtime.getRuntime().availableProcessors();
+    private static final int PROGRAM_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    private static final int EARLY_ROUTE_CAPACITY = 1024;
+
     private InventoryReader inventoryReader;
     private FlowWriterService flowWriterService;
     private final static Logger LOG = LoggerFactory.getLogger(ReactiveFlowWriter.class);
     private TopologyGraph topologyGraph;
-    private boolean delayElapsed;
-    private SingleGraph graph;
+    private PathCache pathCache;
+    private ShortestPathTreeCache treeCache;
+    private InstalledPathRegistry installedPaths;
+    private volatile FastReroute fastReroute;
+    private volatile EqualCostPaths equalCostPaths;
+    private volatile boolean active;
+    // pairs received before activation, guarded by itself
+    private final Deque<RouteTask> earlyRoutes = new ArrayDeque<>();
+    private volatile boolean bidirectional;
+    private volatile boolean destinationTrees;
+    private final ConcurrentMap<MacPair, RouteTask> pendingRoutes = new ConcurrentHashMap<>();
+    private final AtomicLong receivedArps = new AtomicLong();
+    private final AtomicLong deduplicatedArps = new AtomicLong();
+    private final AtomicLong bufferedArps = new AtomicLong();
+    private final AtomicLong droppedEarlyArps = new AtomicLong();
+    private final AtomicLong repairedTrees = new AtomicLong();
+    private final LatencyHistogram pathComputationLatency = new LatencyHistogram();
+    private final PipelineStage parseStage = new PipelineStage("arp-parse", 1, STAGE_QUEUE_CAPACITY);
+    private final PipelineStage routeStage = new PipelineStage("arp-route", ROUTE_THREADS, STAGE_QUEUE_CAPACITY) {
+        @Override
+        protected void discarded(Runnable task) {
+            RouteTask routeTask = (RouteTask) task;
+            pendingRoutes.remove(routeTask.macPair, routeTask);
+        }
+    };
+    private final PipelineStage programStage = new PipelineStage("arp-program", PROGRAM_THREADS,
+            STAGE_QUEUE_CAPACITY);
+    private final ThreadLocal<CompactDijkstra> compactDijkstra = new ThreadLocal<CompactDijkstra>() {
+        @Override
+        protected CompactDijkstra initialValue() {
+            return new CompactDijkstra();
+        }
+    };
+    private final ThreadLocal<DynamicDijkstra> dynamicDijkstra = new ThreadLocal<DynamicDijkstra>() {
+        @Override
+        protected DynamicDijkstra initialValue() {
+            return new DynamicDijkstra();
+        }
+    };
 
 
-    public ReactiveFlowWriter(TopologyGraph topologyGraph, InventoryReader inventoryReader, FlowWriterService flowWriterService) {
+    public ReactiveFlowWriter(TopologyGraph topologyGraph, PathCache pathCache, ShortestPathTreeCache treeCache,
+                              InstalledPathRegistry installedPaths, InventoryReader inventoryReader,
+                              FlowWriterService flowWriterService) {
         this.inventoryReader = inventoryReader;
         this.flowWriterService = flowWriterService;
         this.topologyGraph = topologyGraph;
-        System.out.println("ReactiveFlowWriter initiated.");
+        this.pathCache = pathCache;
+        this.treeCache = treeCache;
+        this.installedPaths = installedPaths;
+        LOG.debug("ReactiveFlowWriter initiated");
 
     }
 
-    public void setDelayElapsed(boolean delayElapsed) {
-        this.delayElapsed = delayElapsed;
+    /**
+     * Starts routing, once the topology is ready. The pairs of hosts received before are routed now, in the order
+     * they were received.
+     */
+    public void activate() {
+        List<RouteTask> replayed;
+        synchronized (earlyRoutes) {
+            if (active) {
+                return;
+            }
+            active = true;
+            replayed = new ArrayList<>(earlyRoutes);
+            earlyRoutes.clear();
+        }
+        LOG.info("Activated, replaying {} pairs of hosts received before", replayed.size());
+        for (RouteTask task : replayed) {
+            routeStage.execute(task);
+        }
     }
 
+    public boolean isActive() {
+        return active;
+    }
 
-    @Override
-    public void onArpPacketReceived(ArpPacketReceived packetReceived) {
+    /**
+     * Sets whether the flows of both directions are installed when the path of a pair of hosts is computed, so
+     * that the reply does not need another path computation.
+     *
+     * @param bidirectional true to install both directions
+     */
+    public void setBidirectional(boolean bidirectional) {
+        this.bidirectional = bidirectional;
+    }
+
+    /**
+     * Sets whether the hosts are reached through destination trees instead of paths per pair of hosts. In this mode,
+     * the shortest path tree of the destination host gives every switch one flow matching on the destination only,
+     * so that the number of flows grows with the number of hosts instead of the number of pairs, and a new source
+     * reaching a known destination needs no flow at all. In bidirectional mode, the tree of the source host is
+     * installed too. Equal-cost paths and backup paths are not used for trees: a tree using a failed link is computed
+     * again and rewritten as soon as the failure is reported (see {@link FastReroute}).
+     *
+     * @param destinationTrees true to install destination trees
+     */
+    public void setDestinationTrees(boolean destinationTrees) {
+        this.destinationTrees = destinationTrees;
+    }
+
+    /**
+     * Sets the equal-cost paths used to spread the pairs of hosts over all the shortest paths between their switches
+     * (ECMP). Each pair is assigned one of the paths by a consistent hash of its addresses, so a pair keeps its path
+     * as long as the set of paths does not change.
+     *
+     * @param equalCostPaths the equal-cost paths, or {@code null} to always use the first shortest path found
+     */
+    public void setEqualCostPaths(EqualCostPaths equalCostPaths) {
+        this.equalCostPaths = equalCostPaths;
+    }
 
+    /**
+     * Sets the {@link FastReroute} that protects every path this writer installs with a backup path.
+     *
+     * @param fastReroute the fast reroute, or {@code null} to leave paths unprotected
+     */
+    public void setFastReroute(FastReroute fastReroute) {
+        this.fastReroute = fastReroute;
+    }
+
+
+    /**
+     * Hands the packet to the parse stage and returns immediately, so that the notification thread is never blocked
+     * by path computation or flow programming.
+     */
+    @Override
+    public void onArpPacketReceived(final ArpPacketReceived packetReceived) {
+        receivedArps.incrementAndGet();
         if (packetReceived == null || packetReceived.getPacketChain() == null) {
             return;
         }
+        parseStage.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    parse(packetReceived);
+                } catch (Exception e) {
+                    LOG.warn("Failed to parse an ARP packet", e);
+                }
+            }
+        });
+    }
+
+    public PipelineStage getParseStage() {
+        return parseStage;
+    }
+
+    public PipelineStage getRouteStage() {
+        return routeStage;
+    }
+
+    public PipelineStage getProgramStage() {
+        return programStage;
+    }
+
+    /**
+     * @return the number of ARP notifications received so far
+     */
+    public long getReceivedArps() {
+        return receivedArps.get();
+    }
+
+    /**
+     * @return the number of ARPs whose path was already being computed when they were received
+     */
+    public long getDeduplicatedArps() {
+        return deduplicatedArps.get();
+    }
+
+    /**
+     * @return the number of pairs of hosts received before activation and kept for routing on activation
+     */
+    public long getBufferedArps() {
+        return bufferedArps.get();
+    }
+
+    /**
+     * @return the number of pairs of hosts received before activation and dropped because too many were waiting
+     */
+    public long getDroppedEarlyArps() {
+        return droppedEarlyArps.get();
+    }
+
+    /**
+     * @return the number of ARPs dropped by the parse stage or pairs of hosts dropped before routing, because too
+     * many were waiting
+     */
+    public long getDroppedArps() {
+        return parseStage.getDroppedTasks() + routeStage.getDroppedTasks() + droppedEarlyArps.get();
+    }
+
+    /**
+     * @return the latency of the path computations, from the lookup of the shortest path tree to the output ports
+     */
+    public LatencyHistogram getPathComputationLatency() {
+        return pathComputationLatency;
+    }
+
+    /**
+     * @return the number of shortest path trees repaired after a topology change instead of computed from scratch
+     */
+    public long getRepairedTrees() {
+        return repairedTrees.get();
+    }
 
+    /**
+     * Stops the pipeline. Packets already queued are still processed.
+     */
+    @Override
+    public void close() {
+        parseStage.close();
+        routeStage.close();
+        programStage.close();
+    }
+
+    /**
+     * Parse stage: extracts the hosts from the packet chain and queues the pair for routing, unless a path for the
+     * same pair is already queued. Before activation, the pair is kept until {@link #activate()} instead.
+     */
+    private void parse(ArpPacketReceived packetReceived) {
         RawPacket rawPacket = null;
 
         EthernetPacket ethernetPacket = null;
@@ -69,42 +296,393 @@ public class ReactiveFlowWriter implements ArpPacketListener {
             return;
         }
 
-        if (!delayElapsed) {
+        MacAddress srcMac = ethernetPacket.getSourceMac();
+        MacAddress destMac = ethernetPacket.getDestinationMac();
+        // String srcIp = arpPacket.getSourceProtocolAddress();
+        // String destIp = arpPacket.getDestinationProtocolAddress();
+        RouteTask task = new RouteTask(srcMac, destMac);
+        if (pendingRoutes.putIfAbsent(task.macPair, task) != null) {
+            deduplicatedArps.incrementAndGet();
             return;
-        } else {
-            try {
-                MacAddress srcMac = ethernetPacket.getSourceMac();
-                MacAddress destMac = ethernetPacket.getDestinationMac();
-                // String srcIp = arpPacket.getSourceProtocolAddress();
-                // String destIp = arpPacket.getDestinationProtocolAddress();
-                graph = topologyGraph.getGraph();
-
-
-                Dijkstra dijkstra = new Dijkstra(Dijkstra.Element.EDGE, null, null);
-                dijkstra.init(graph);
-                System.out.println(srcMac.getValue());
-                Node node = graph.getNode(srcMac.getValue());
-                System.out.println("Node: " + node);
-                dijkstra.setSource(node);
-                dijkstra.compute();
-                Iterable<Edge> edges = dijkstra.getPathEdges(graph.getNode(destMac.getValue()));
-                String srcInPort = topologyGraph.getLinkEndNode(srcMac.getValue());
-                Iterator<Edge> it = edges.iterator();
-                while (it.hasNext()) {
-
-                    String outport = it.next().getId();
-                    String switchId =  getSwitchId(outport);
-                    if(!outport.equals(srcInPort)) {
-                        System.out.println("Install a flow with match " + srcMac + ", " + destMac + ", " + "on switch " + switchId);
-                        System.out.println("Action: output to " + outport);
-                        writeNormalFlows(switchId, outport, srcMac, destMac);
-                    }
+        }
+        if (!active && buffer(task)) {
+            return;
+        }
+        routeStage.execute(task);
+    }
+
+    /**
+     * Keeps a pair until activation. When too many pairs are waiting, the oldest one is dropped, as in a
+     * {@link PipelineStage}.
+     *
+     * @return false if the writer got activated meanwhile and the pair must be routed right away
+     */
+    private boolean buffer(RouteTask task) {
+        synchronized (earlyRoutes) {
+            if (active) {
+                return false;
+            }
+            if (earlyRoutes.size() >= EARLY_ROUTE_CAPACITY) {
+                RouteTask dropped = earlyRoutes.removeFirst();
+                pendingRoutes.remove(dropped.macPair, dropped);
+                droppedEarlyArps.incrementAndGet();
+            }
+            earlyRoutes.addLast(task);
+            bufferedArps.incrementAndGet();
+            return true;
+        }
+    }
+
+    /**
+     * Route stage: looks up or computes the path of a pair and queues its flows for programming. In bidirectional
+     * mode, a computed path is also used for the opposite direction, whose flows are queued as well.
+     */
+    private void route(MacAddress srcMac, MacAddress destMac, MacPair macPair) {
+        if (destinationTrees) {
+            routeToDestination(destMac);
+            if (bidirectional) {
+                routeToDestination(srcMac);
+            }
+            return;
+        }
+        List<String> path = pathCache.get(macPair);
+        if (path == null) {
+            long start = System.nanoTime();
+            TopologySnapshot snapshot = topologyGraph.getSnapshot();
+            List<String> edgeIds = computePathEdgeIds(snapshot, macPair);
+            path = getOutports(snapshot, macPair, edgeIds);
+            pathComputationLatency.record(System.nanoTime() - start);
+            pathCache.put(macPair, path, snapshot.getVersion());
+            if (bidirectional) {
+                List<String> reversePath = getReverseOutports(snapshot, macPair, edgeIds);
+                if (reversePath != null) {
+                    MacPair reversePair = macPair.reverse();
+                    pathCache.put(reversePair, reversePath, snapshot.getVersion());
+                    queueProgram(destMac, srcMac, reversePair, reversePath);
                 }
-            } catch (Exception e) {
-                e.printStackTrace();
             }
+        }
+        queueProgram(srcMac, destMac, macPair, path);
+    }
+
+    /**
+     * Installs the tree of a destination host ahead of any ARP towards it. The tree is looked up or computed on the
+     * calling thread and its flows are queued for programming, as for an ARP. Only allowed in destination tree mode,
+     * since the flows of the tree would overlap the flows of the pairs of hosts otherwise.
+     *
+     * @param destMac the destination host
+     */
+    public void installDestinationTree(String destMac) {
+        Preconditions.checkState(destinationTrees, "Destination trees are not enabled.");
+        routeToDestination(new MacAddress(destMac));
+    }
+
+    /**
+     * @param destMac the destination host
+     * @return true if the tree of the destination is installed or being installed
+     */
+    public boolean hasDestinationTree(String destMac) {
+        return installedPaths.getOutputPorts(MacPair.anySource(destMac)) != null;
+    }
+
+    /**
+     * Forgets the tree of a destination host that left the topology and removes its flows from the switches.
+     *
+     * @param destMac the destination host
+     */
+    public void removeDestinationTree(String destMac) {
+        Preconditions.checkState(destinationTrees, "Destination trees are not enabled.");
+        MacPair treePair = MacPair.anySource(destMac);
+        List<String> replacedPorts = installedPaths.getOutputPorts(treePair);
+        installedPaths.remove(treePair);
+        FastReroute reroute = fastReroute;
+        if (reroute != null) {
+            reroute.remove(treePair);
+        }
+        if (replacedPorts != null) {
+            removeFlows(null, new MacAddress(destMac), replacedPorts, Collections.<String>emptyList());
+        }
+    }
+
+    /**
+     * Route stage in destination tree mode: looks up or computes the output ports of the tree of a destination host
+     * and queues its flows for programming.
+     */
+    private void routeToDestination(MacAddress destMac) {
+        MacPair treePair = MacPair.anySource(destMac.getValue());
+        queueProgram(null, destMac, treePair, getTreeOutports(treePair));
+    }
+
+    /**
+     * @param treePair the pair of the tree of a destination host
+     * @return the output ports of the tree on the current topology, from the path cache if they are up to date
+     */
+    private List<String> getTreeOutports(MacPair treePair) {
+        List<String> outports = pathCache.get(treePair);
+        if (outports == null) {
+            long start = System.nanoTime();
+            TopologySnapshot snapshot = topologyGraph.getSnapshot();
+            outports = computeTreeOutports(snapshot, treePair.getDestinationMac());
+            pathComputationLatency.record(System.nanoTime() - start);
+            pathCache.put(treePair, outports, snapshot.getVersion());
+        }
+        return outports;
+    }
+
+    private void queueProgram(final MacAddress srcMac, final MacAddress destMac, final MacPair macPair,
+                              final List<String> outports) {
+        if (outports.isEmpty()) {
+            return;
+        }
+        programStage.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    program(srcMac, destMac, macPair, outports);
+                } catch (Exception e) {
+                    LOG.warn("Failed to program the path from {} to {}", srcMac, destMac, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Writes the flows of a backup path on the calling thread, bypassing the pipeline so that a failover does not
+     * wait behind queued ARPs.
+     */
+    @Override
+    public void programPath(MacPair macPair, List<String> outputPorts) {
+        program(new MacAddress(macPair.getSourceMac()), new MacAddress(macPair.getDestinationMac()), macPair,
+                outputPorts);
+    }
+
+    /**
+     * Computes the tree of a destination host again and writes its flows on the calling thread, bypassing the
+     * pipeline as for a backup path. A destination that can no longer be reached is forgotten.
+     */
+    @Override
+    public void programDestinationTree(String destMac) {
+        MacPair treePair = MacPair.anySource(destMac);
+        List<String> outports = getTreeOutports(treePair);
+        if (outports.isEmpty()) {
+            List<String> replacedPorts = installedPaths.getOutputPorts(treePair);
+            installedPaths.remove(treePair);
+            if (replacedPorts != null) {
+                removeFlows(null, new MacAddress(destMac), replacedPorts, outports);
+            }
+            return;
+        }
+        program(null, new MacAddress(destMac), treePair, outports);
+    }
+
+    /**
+     * Program stage: writes the flows of a path, unless the same path is already installed or being installed for
+     * the pair, and has the path protected by a backup path. The flows of the path it replaces are removed from the
+     * switches it no longer goes through.
+     */
+    private void program(final MacAddress srcMac, final MacAddress destMac, MacPair macPair, List<String> outports) {
+        installedPaths.install(macPair, outports, new InstalledPathRegistry.Installer() {
+            @Override
+            public List<Future<RpcResult<AddFlowOutput>>> install(List<String> outputPorts) {
+                List<Future<RpcResult<AddFlowOutput>>> writes = new ArrayList<>();
+                for (String outport : outputPorts) {
+                    String switchId = getSwitchId(outport);
+                    LOG.debug("Install a flow with match {}, {} on switch {}, action: output to {}", srcMac, destMac,
+                            switchId, outport);
+                    writes.add(writeNormalFlows(switchId, outport, srcMac, destMac));
+                }
+                return writes;
+            }
+
+            @Override
+            public void removeStaleFlows(List<String> replacedPorts, List<String> outputPorts) {
+                removeFlows(srcMac, destMac, replacedPorts, outputPorts);
+            }
+        });
+        FastReroute reroute = fastReroute;
+        if (reroute != null) {
+            reroute.protect(macPair, outports);
+        }
+    }
+
+    /**
+     * Looks up the shortest path tree of the source host on a snapshot of the topology. If the cached tree
+     * was computed on an older snapshot, it is repaired with {@link DynamicDijkstra}; Dijkstra is only run from the
+     * source host if there is no tree to repair, or if hosts or switches were added or removed since.
+     *
+     * @param snapshot the snapshot of the topology
+     * @param macPair  the source and destination hosts
+     * @return the ids of the edges of the path, the edge entering the destination host first; empty if either host is
+     * unknown or unreachable
+     */
+    private List<String> computePathEdgeIds(TopologySnapshot snapshot, MacPair macPair) {
+        CompactGraph compactGraph = snapshot.getGraph();
+        int source = compactGraph.indexOf(macPair.getSourceMac());
+        int target = compactGraph.indexOf(macPair.getDestinationMac());
+        if (source < 0 || target < 0) {
+            LOG.debug("No path for {}: host not in the topology", macPair);
+            return Collections.emptyList();
+        }
+
+        ShortestPathTree tree = getShortestPathTree(compactGraph, macPair.getSourceMac(), source);
+        List<String> edgeIds = tree.getPathEdgeIds(target);
+        EqualCostPaths ecmp = equalCostPaths;
+        return ecmp == null ? edgeIds : selectEqualCostPath(ecmp, macPair, tree, target, edgeIds);
+    }
+
+    /**
+     * Looks up the shortest path tree of a host on a snapshot of the topology, repairing or computing it if needed.
+     *
+     * @param compactGraph the snapshot of the topology
+     * @param mac          the host the tree is rooted at
+     * @param root         the index of the host in the snapshot
+     * @return the tree
+     */
+    private ShortestPathTree getShortestPathTree(CompactGraph compactGraph, String mac, int root) {
+        ShortestPathTree tree = treeCache.get(mac, compactGraph);
+        if (tree == null) {
+            ShortestPathTree outdated = treeCache.getLatest(mac);
+            if (outdated != null && outdated.getGraph().getVersion() < compactGraph.getVersion()) {
+                tree = dynamicDijkstra.get().repair(outdated, compactGraph);
+                if (tree != null) {
+                    repairedTrees.incrementAndGet();
+                    treeCache.put(mac, tree);
+                }
+            }
+        }
+        if (tree == null) {
+            CompactDijkstra dijkstra = compactDijkstra.get();
+            dijkstra.init(compactGraph);
+            dijkstra.compute(root);
+            tree = dijkstra.getShortestPathTree();
+            treeCache.put(mac, tree);
+        }
+        return tree;
+    }
+
+    /**
+     * Collects the output port of every switch towards a destination host. Since both directions of a link have the
+     * same length, the shortest path tree rooted at the destination, read from the leaves up, leads every switch to
+     * the destination along a shortest path: a switch leaves through the port of the destination host if it is
+     * attached to it, or else through the other end of the link from its parent.
+     *
+     * @param snapshot the snapshot of the topology
+     * @param destMac  the destination host
+     * @return the output ports, one per switch that reaches the destination, sorted so that the same tree always
+     * gives the same list; empty if the destination is not in the topology
+     */
+    private List<String> computeTreeOutports(TopologySnapshot snapshot, String destMac) {
+        CompactGraph compactGraph = snapshot.getGraph();
+        int root = compactGraph.indexOf(destMac);
+        if (root < 0) {
+            LOG.debug("No tree for {}: host not in the topology", destMac);
+            return Collections.emptyList();
+        }
+        ShortestPathTree tree = getShortestPathTree(compactGraph, destMac, root);
+        List<String> outports = new ArrayList<>();
+        for (int node = 0; node < compactGraph.getNodeCount(); node++) {
+            int parent = tree.getParent(node);
+            if (parent < 0 || !compactGraph.getNodeId(node).contains("open")) {
+                continue;
+            }
+            String edgeId = compactGraph.getEdgeId(tree.getEdgeFromParent(node));
+            if (parent == root) {
+                // the edge of a host is named after the switch port the host is attached to
+                outports.add(edgeId);
+            } else if (compactGraph.getNodeId(parent).contains("open")) {
+                String outport = snapshot.getLinkEndNode(edgeId);
+                if (outport != null) {
+                    outports.add(outport);
+                }
+            }
+        }
+        Collections.sort(outports);
+        return outports;
+    }
+
+    /**
+     * Replaces the switch-to-switch part of a path by one of the equal-cost paths between the switches of the hosts,
+     * chosen by hashing the pair.
+     *
+     * @param edgeIds the edges of the shortest path found, the edge entering the destination host first
+     * @return the edges of the chosen path, in the same order
+     */
+    private List<String> selectEqualCostPath(EqualCostPaths ecmp, MacPair macPair, ShortestPathTree tree, int target,
+                                             List<String> edgeIds) {
+        if (edgeIds.size() < 3) {
+            // both hosts are on the same switch
+            return edgeIds;
+        }
+        int dstSwitch = tree.getParent(target);
+        int srcSwitch = dstSwitch;
+        while (tree.getParent(srcSwitch) != tree.getSource()) {
+            srcSwitch = tree.getParent(srcSwitch);
+        }
+        List<List<String>> paths = ecmp.get(tree, srcSwitch, dstSwitch);
+        if (paths.size() < 2) {
+            return edgeIds;
+        }
+        int choice = Hashing.consistentHash(Hashing.murmur3_32().hashString(
+                macPair.getSourceMac() + macPair.getDestinationMac(), Charsets.UTF_8), paths.size());
+        List<String> path = new ArrayList<>(paths.get(choice).size() + 2);
+        path.add(edgeIds.get(0));
+        path.addAll(paths.get(choice));
+        path.add(edgeIds.get(edgeIds.size() - 1));
+        return path;
+    }
+
+    /**
+     * Collects the output ports along a path. Edges are named after the switch port they leave from, except for the
+     * edge of the source host, which is named after the port the host is attached to and is skipped.
+     *
+     * @param snapshot the snapshot of the topology the path was computed on
+     * @param macPair  the source and destination hosts
+     * @param edgeIds  the edges of the path, the edge entering the destination host first
+     * @return the output ports of the path, starting at the switch closest to the destination
+     */
+    private List<String> getOutports(TopologySnapshot snapshot, MacPair macPair, List<String> edgeIds) {
+        String srcInPort = snapshot.getLinkEndNode(macPair.getSourceMac());
+        List<String> outports = new ArrayList<>();
+        for (String outport : edgeIds) {
+            if (!outport.equals(srcInPort)) {
+                outports.add(outport);
+            }
+        }
+        return outports;
+    }
 
+    /**
+     * Derives the output ports of the path in the opposite direction from the edges of a path. Since both directions
+     * of a link have the same length (see {@link eu.virtuwind.monitoring.impl.inventory.LinkWeightMonitor}), the
+     * reverse of a shortest path is a shortest path too: it leaves the switches of the path through the other end of
+     * every switch-to-switch link, and the source switch through the port of the source host.
+     *
+     * @param snapshot the snapshot of the topology the path was computed on
+     * @param macPair  the source and destination hosts of the path
+     * @param edgeIds  the edges of the path, the edge entering the destination host first
+     * @return the output ports of the reverse path, starting at the switch closest to the source host; {@code null}
+     * if the path is empty or the other end of a link is unknown
+     */
+    private List<String> getReverseOutports(TopologySnapshot snapshot, MacPair macPair, List<String> edgeIds) {
+        int hops = edgeIds.size();
+        if (hops < 2) {
+            return null;
+        }
+        String srcInPort = edgeIds.get(hops - 1);
+        if (!srcInPort.equals(snapshot.getLinkEndNode(macPair.getSourceMac()))) {
+            return null;
+        }
+        List<String> outports = new ArrayList<>(hops - 1);
+        outports.add(srcInPort);
+        // the switch-to-switch edges lie between the edges of the two hosts
+        for (int i = hops - 2; i > 0; i--) {
+            String reversePort = snapshot.getLinkEndNode(edgeIds.get(i));
+            if (reversePort == null) {
+                return null;
+            }
+            outports.add(reversePort);
         }
+        return outports;
     }
 
 
@@ -118,9 +696,64 @@ public class ReactiveFlowWriter implements ArpPacketListener {
     }
 
 
-    public void writeNormalFlows(String switchId, String dest, MacAddress srcMac, MacAddress destMac) {
-        LOG.info("Inside of writeNormalFlows");
-        flowWriterService.addMacToMacFlow(switchId, srcMac, destMac, dest);
+    /**
+     * Removes the flows of a pair of hosts, or of a destination tree, from the switches of a replaced path that the
+     * new path does not go through. The switches on both keep their flow, which the new path overwrites.
+     *
+     * @param srcMac        the source host, or {@code null} for a destination tree
+     * @param destMac       the destination host
+     * @param replacedPorts the output ports of the replaced path
+     * @param outputPorts   the output ports of the new path
+     */
+    private void removeFlows(MacAddress srcMac, MacAddress destMac, List<String> replacedPorts,
+                             List<String> outputPorts) {
+        Set<String> switchIds = new HashSet<>();
+        for (String outport : outputPorts) {
+            switchIds.add(getSwitchId(outport));
+        }
+        for (String outport : replacedPorts) {
+            String switchId = getSwitchId(outport);
+            if (switchId != null && switchIds.add(switchId)) {
+                LOG.debug("Remove the flow with match {}, {} from switch {}", srcMac, destMac, switchId);
+                removeNormalFlows(switchId, srcMac, destMac);
+            }
+        }
+    }
+
+    public Future<RpcResult<RemoveFlowOutput>> removeNormalFlows(String switchId, MacAddress srcMac,
+                                                                 MacAddress destMac) {
+        return flowWriterService.removeMacToMacFlow(switchId, srcMac, destMac);
+    }
+
+    public Future<RpcResult<AddFlowOutput>> writeNormalFlows(String switchId, String dest, MacAddress srcMac,
+                                                             MacAddress destMac) {
+        return flowWriterService.addMacToMacFlow(switchId, srcMac, destMac, dest);
+    }
+
+
+    /**
+     * Routes a pair of hosts. At most one task per pair is queued at a time.
+     */
+    private final class RouteTask implements Runnable {
+        private final MacAddress srcMac;
+        private final MacAddress destMac;
+        private final MacPair macPair;
+
+        private RouteTask(MacAddress srcMac, MacAddress destMac) {
+            this.srcMac = srcMac;
+            this.destMac = destMac;
+            this.macPair = new MacPair(srcMac.getValue(), destMac.getValue());
+        }
+
+        @Override
+        public void run() {
+            pendingRoutes.remove(macPair, this);
+            try {
+                route(srcMac, destMac, macPair);
+            } catch (Exception e) {
+                LOG.warn("Failed to route {}", macPair, e);
+            }
+        }
     }
 
 }
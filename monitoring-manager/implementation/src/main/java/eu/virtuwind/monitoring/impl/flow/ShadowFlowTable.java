@@ -0,0 +1,172 @@
+package eu.virtuwind.monitoring.impl.flow;
+
+import org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.ietf.yang.types.rev100924.MacAddress;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.inventory.rev130819.tables.table.Flow;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.service.rev130819.AddFlowInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.model.match.types.rev131026.match.EthernetMatch;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Remembers the flows this module wrote to every switch: for each switch, the input of the last addFlow RPC of every
+ * match, indexed by the source and destination MAC addresses of the match. Its cookie tells the current flow of a
+ * match from the flows it replaced. The table is the reference the flows of a switch are reconciled against when the
+ * switch reconnects (see {@link FlowReconciler}): only the flows the switch lacks, or holds in an older version, are
+ * written again. Flows the switches report as removed, and flows removed from the switches a path no longer goes
+ * through, are dropped from the table.
+ */
+public class ShadowFlowTable {
+    private final ConcurrentMap<String, ConcurrentMap<MatchKey, AddFlowInput>> switches = new ConcurrentHashMap<>();
+
+    /**
+     * Records a flow about to be written, replacing the flow with the same match on the switch. Flows without an
+     * ethernet destination in their match are ignored.
+     *
+     * @param switchId the switch, e.g. openflow:1
+     * @param input    the input of the addFlow RPC
+     */
+    public void record(String switchId, AddFlowInput input) {
+        MatchKey key = input.getMatch() == null ? null : MatchKey.of(input.getMatch().getEthernetMatch());
+        if (key == null) {
+            return;
+        }
+        ConcurrentMap<MatchKey, AddFlowInput> flows = switches.get(switchId);
+        if (flows == null) {
+            ConcurrentMap<MatchKey, AddFlowInput> created = new ConcurrentHashMap<>();
+            flows = switches.putIfAbsent(switchId, created);
+            if (flows == null) {
+                flows = created;
+            }
+        }
+        flows.put(key, input);
+    }
+
+    /**
+     * Drops the flow of a match if it is the current one.
+     *
+     * @param switchId  the switch, e.g. openflow:1
+     * @param sourceMac the source mac of the match, or {@code null}
+     * @param destMac   the destination mac of the match
+     * @param cookie    the cookie of the flow, or {@code null} to drop the flow whatever its cookie
+     * @return true if the flow was dropped, false if it is unknown or was replaced by another flow since
+     */
+    public boolean remove(String switchId, String sourceMac, String destMac, BigInteger cookie) {
+        ConcurrentMap<MatchKey, AddFlowInput> flows = switches.get(switchId);
+        if (flows == null) {
+            return false;
+        }
+        MatchKey key = new MatchKey(sourceMac, destMac);
+        AddFlowInput current = flows.get(key);
+        if (current == null || (cookie != null && !cookie.equals(getCookie(current)))) {
+            return false;
+        }
+        return flows.remove(key, current);
+    }
+
+    /**
+     * Finds the flows recorded for a switch that it does not hold, or holds with another cookie.
+     *
+     * @param switchId       the switch, e.g. openflow:1
+     * @param installedFlows the flows of the table of the switch, as reported by the switch
+     * @return the inputs of the flows to write again
+     */
+    public List<AddFlowInput> diff(String switchId, Collection<? extends Flow> installedFlows) {
+        ConcurrentMap<MatchKey, AddFlowInput> flows = switches.get(switchId);
+        if (flows == null || flows.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Map<MatchKey, BigInteger> installedCookies = new HashMap<>();
+        for (Flow flow : installedFlows) {
+            MatchKey key = flow.getMatch() == null ? null : MatchKey.of(flow.getMatch().getEthernetMatch());
+            if (key != null && flow.getCookie() != null) {
+                installedCookies.put(key, flow.getCookie().getValue());
+            }
+        }
+        List<AddFlowInput> missing = new ArrayList<>();
+        for (Map.Entry<MatchKey, AddFlowInput> entry : flows.entrySet()) {
+            BigInteger installedCookie = installedCookies.get(entry.getKey());
+            if (installedCookie == null || !installedCookie.equals(getCookie(entry.getValue()))) {
+                missing.add(entry.getValue());
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * @param switchId the switch, e.g. openflow:1
+     * @return the number of flows recorded for the switch
+     */
+    public int size(String switchId) {
+        ConcurrentMap<MatchKey, AddFlowInput> flows = switches.get(switchId);
+        return flows == null ? 0 : flows.size();
+    }
+
+    /**
+     * @return the number of flows recorded for all the switches
+     */
+    public int size() {
+        int size = 0;
+        for (ConcurrentMap<MatchKey, AddFlowInput> flows : switches.values()) {
+            size += flows.size();
+        }
+        return size;
+    }
+
+    private static BigInteger getCookie(AddFlowInput input) {
+        return input.getCookie() == null ? null : input.getCookie().getValue();
+    }
+
+    /**
+     * Identifies a flow of a switch by the MAC addresses of its match. Addresses are compared in lower case, as the
+     * switches may report them in another case than they were written.
+     */
+    private static final class MatchKey {
+        private final String sourceMac;
+        private final String destMac;
+
+        private MatchKey(String sourceMac, String destMac) {
+            this.sourceMac = sourceMac == null ? null : sourceMac.toLowerCase();
+            this.destMac = destMac.toLowerCase();
+        }
+
+        /**
+         * @return the key of the match, or {@code null} if it has no ethernet destination
+         */
+        private static MatchKey of(EthernetMatch ethernetMatch) {
+            if (ethernetMatch == null || ethernetMatch.getEthernetDestination() == null
+                    || ethernetMatch.getEthernetDestination().getAddress() == null) {
+                return null;
+            }
+            MacAddress sourceMac = ethernetMatch.getEthernetSource() == null ? null
+                    : ethernetMatch.getEthernetSource().getAddress();
+            return new MatchKey(sourceMac == null ? null : sourceMac.getValue(),
+                    ethernetMatch.getEthernetDestination().getAddress().getValue());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof MatchKey)) {
+                return false;
+            }
+            MatchKey other = (MatchKey) o;
+            return destMac.equals(other.destMac)
+                    && (sourceMac == null ? other.sourceMac == null : sourceMac.equals(other.sourceMac));
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (sourceMac != null ? sourceMac.hashCode() : 0) + destMac.hashCode();
+        }
+    }
+}
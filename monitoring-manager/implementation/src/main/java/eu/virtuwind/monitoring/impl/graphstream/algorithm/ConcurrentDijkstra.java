@@ -0,0 +1,91 @@
+package eu.virtuwind.monitoring.impl.graphstream.algorithm;
+
+import org.graphstream.graph.Node;
+
+/**
+ * <p>
+ * A {@link Dijkstra} that does not write to the graph. The solution data of the
+ * nodes is kept in an array of the instance indexed by node index instead of
+ * node attributes, and the edges of the tree are not tagged. Several instances
+ * can therefore compute shortest paths on the same graph at the same time, one
+ * per thread, as long as the graph is not modified meanwhile, and a computation
+ * costs no attribute writes on the nodes.
+ * </p>
+ *
+ * <p>
+ * The array is reused from one computation to the next. Since it is indexed by
+ * node index, the solution of a computation is only valid for the graph as it
+ * was during the computation: removing a node changes the index of another one.
+ * </p>
+ *
+ * <h3>Example</h3>
+ *
+ * <pre>
+ * // one instance per thread
+ * ConcurrentDijkstra dijkstra = new ConcurrentDijkstra(Dijkstra.Element.EDGE, "length");
+ * dijkstra.init(graph);
+ * dijkstra.setSource(graph.getNode("A"));
+ * dijkstra.compute();
+ * System.out.println(dijkstra.getPathLength(graph.getNode("B")));
+ * </pre>
+ */
+public class ConcurrentDijkstra extends Dijkstra {
+    protected Data[] data = new Data[0];
+
+    /**
+     * Constructs an instance with the specified parameters.
+     *
+     * @param element
+     *            Graph elements (edges or/and nodes) used to compute the path
+     *            lengths. If {@code null}, the length of the path is computed
+     *            using edges.
+     * @param lengthAttribute
+     *            Attribute name used to define individual element lengths. If
+     *            {@code null} the length of the elements is considered to be
+     *            one.
+     */
+    public ConcurrentDijkstra(Element element, String lengthAttribute) {
+        super(element, null, lengthAttribute);
+    }
+
+    /**
+     * Tagging the edges of the tree would write to the graph.
+     *
+     * @throws UnsupportedOperationException
+     *             always
+     */
+    @Override
+    public void setFlagAttribute(String flagAttribute) {
+        throw new UnsupportedOperationException("ConcurrentDijkstra does not tag edges");
+    }
+
+    /**
+     * Frees the solution data. The graph is left untouched. Solution access
+     * methods must not be used after calling this method.
+     */
+    @Override
+    public void clear() {
+        data = new Data[0];
+    }
+
+    @Override
+    protected void resetData() {
+        int nodeCount = graph.getNodeCount();
+        if (data.length < nodeCount) {
+            Data[] grown = new Data[Math.max(nodeCount, 2 * data.length)];
+            System.arraycopy(data, 0, grown, 0, data.length);
+            for (int i = data.length; i < grown.length; i++)
+                grown[i] = new Data();
+            data = grown;
+        }
+        for (int i = 0; i < nodeCount; i++) {
+            data[i].distance = Double.POSITIVE_INFINITY;
+            data[i].edgeFromParent = null;
+        }
+    }
+
+    @Override
+    protected Data getData(Node node) {
+        return data[node.getIndex()];
+    }
+}
@@ -38,7 +38,7 @@ package eu.virtuwind.monitoring.impl.graphstream.algorithm;
         import java.util.List;
         import java.util.NoSuchElementException;
         import java.util.Stack;
-        import eu.virtuwind.monitoring.impl.graphstream.algorithm.util.FibonacciHeap;
+        import eu.virtuwind.monitoring.impl.graphstream.algorithm.util.IndexedDaryHeap;
         import org.graphstream.graph.Edge;
         import org.graphstream.graph.Graph;
         import org.graphstream.graph.Node;
@@ -53,8 +53,9 @@ package eu.virtuwind.monitoring.impl.graphstream.algorithm;
  * </p>
  *
  * <p>
- * This implementation uses internally Fibonacci Heap, a data structure that
- * makes it run faster for big graphs.
+ * This implementation uses internally an indexed 4-ary heap keyed by node
+ * index, which on sparse graphs like network topologies runs faster than a
+ * Fibonacci heap and does not allocate per node heap entries.
  * </p>
  *
  * <h3>Length of a path</h3>
@@ -87,7 +88,8 @@ package eu.virtuwind.monitoring.impl.graphstream.algorithm;
  * specified, a unique name is chosen automatically based on the hash code of
  * the Dijkstra instance. The attributes store opaque internal objects and must
  * not be accessed, modified or deleted. The only way to retrieve the solution
- * is using different solution access methods.
+ * is using different solution access methods. {@link ConcurrentDijkstra} keeps
+ * its solution out of the graph instead.
  * </p>
  *
  * <h3>Usage</h3>
@@ -154,11 +156,15 @@ package eu.virtuwind.monitoring.impl.graphstream.algorithm;
  */
 public class Dijkstra extends AbstractSpanningTree {
     protected static class Data {
-        FibonacciHeap<Double, Node>.Node fn;
         Edge edgeFromParent;
         double distance;
     }
 
+    /**
+     * Arity of the heap used by {@link #makeTree()}.
+     */
+    protected static final int HEAP_ARITY = 4;
+
     /**
      * This enumeration is used to specify how the length of a path is computed
      *
@@ -183,7 +189,9 @@ public class Dijkstra extends AbstractSpanningTree {
     protected Element element;
     protected String resultAttribute;
     protected String lengthAttribute;
+    protected String maskAttribute;
     protected Node source;
+    protected IndexedDaryHeap heap;
 
     // *** Helpers ***
 
@@ -298,6 +306,26 @@ public class Dijkstra extends AbstractSpanningTree {
         this.source = source;
     }
 
+    /**
+     * @return the attribute that masks edges and nodes, or {@code null} if no element is masked
+     * @see #setMaskAttribute(String)
+     */
+    public String getMaskAttribute() {
+        return maskAttribute;
+    }
+
+    /**
+     * Sets the attribute that masks edges and nodes. Edges carrying the attribute, and edges leading to nodes
+     * carrying it, are ignored by subsequent computations, as if they were removed from the graph. This lets
+     * algorithms built on top of Dijkstra, such as {@link KShortestPaths}, exclude parts of the graph without
+     * copying or modifying it.
+     *
+     * @param maskAttribute the attribute, or {@code null} to use all the elements
+     */
+    public void setMaskAttribute(String maskAttribute) {
+        this.maskAttribute = maskAttribute;
+    }
+
     /**
      * Removes the attributes used to store internal solution data in the nodes
      * of the graph. Use this method to free memory. Solution access methods
@@ -308,10 +336,8 @@ public class Dijkstra extends AbstractSpanningTree {
         super.clear();
         for (Node node : graph) {
             Data data = node.getAttribute(resultAttribute);
-            if (data != null) {
-                data.fn = null;
+            if (data != null)
                 data.edgeFromParent = null;
-            }
             node.removeAttribute(resultAttribute);
         }
     }
@@ -340,40 +366,73 @@ public class Dijkstra extends AbstractSpanningTree {
         if (source == null)
             throw new IllegalStateException(
                     "No source specified. Call setSource() first.");
-        resetFlags();
+        if (flagAttribute != null)
+            resetFlags();
         makeTree();
     }
 
-    @Override
-    protected void makeTree() {
-        // initialization
-        FibonacciHeap<Double, Node> heap = new FibonacciHeap<Double, Node>();
+    /**
+     * Sets the distance of every node to infinity and forgets its edge from
+     * parent, creating the solution data of the nodes that have none. By
+     * default the data is stored in the {@code resultAttribute} of the nodes,
+     * and reused from one computation to the next.
+     */
+    protected void resetData() {
         for (Node node : graph) {
-            Data data = new Data();
-            double v = node == source ? getSourceLength()
-                    : Double.POSITIVE_INFINITY;
-            data.fn = heap.add(v, node);
+            Data data = node.getAttribute(resultAttribute);
+            if (data == null) {
+                data = new Data();
+                node.addAttribute(resultAttribute, data);
+            }
+            data.distance = Double.POSITIVE_INFINITY;
             data.edgeFromParent = null;
-            node.addAttribute(resultAttribute, data);
         }
+    }
+
+    /**
+     * Returns the solution data of a node, set by {@link #resetData()}.
+     *
+     * @param node
+     *            a node of the graph
+     * @return the solution data of the node
+     */
+    protected Data getData(Node node) {
+        return node.getAttribute(resultAttribute);
+    }
+
+    @Override
+    protected void makeTree() {
+        // initialization, reusing the heap and the data of the previous computation
+        if (heap == null)
+            heap = new IndexedDaryHeap(HEAP_ARITY, graph.getNodeCount());
+        heap.ensureCapacity(graph.getNodeCount());
+        heap.clear();
+        resetData();
+        Data dataSource = getData(source);
+        dataSource.distance = getSourceLength();
+        heap.add(source.getIndex(), dataSource.distance);
 
         // main loop
         while (!heap.isEmpty()) {
-            Node u = heap.extractMin();
-            Data dataU = u.getAttribute(resultAttribute);
-            dataU.distance = dataU.fn.getKey();
-            dataU.fn = null;
+            Node u = graph.getNode(heap.extractMin());
+            Data dataU = getData(u);
             if (dataU.edgeFromParent != null)
                 edgeOn(dataU.edgeFromParent);
             for (Edge e : u.getEachLeavingEdge()) {
                 Node v = e.getOpposite(u);
-                Data dataV = v.getAttribute(resultAttribute);
-                if (dataV.fn == null)
+                if (maskAttribute != null
+                        && (e.hasAttribute(maskAttribute) || v.hasAttribute(maskAttribute)))
                     continue;
+                Data dataV = getData(v);
+                // settled nodes are out of the heap and cannot be improved
                 double tryDist = dataU.distance + getLength(e, v);
-                if (tryDist < dataV.fn.getKey()) {
+                if (tryDist < dataV.distance) {
+                    dataV.distance = tryDist;
                     dataV.edgeFromParent = e;
-                    heap.decreaseKey(dataV.fn, tryDist);
+                    if (heap.contains(v.getIndex()))
+                        heap.decreaseKey(v.getIndex(), tryDist);
+                    else
+                        heap.add(v.getIndex(), tryDist);
                 }
             }
         }
@@ -556,7 +615,7 @@ public class Dijkstra extends AbstractSpanningTree {
      * @complexity O(1)
      */
     public double getPathLength(Node target) {
-        return target.<Data> getAttribute(resultAttribute).distance;
+        return getData(target).distance;
     }
 
     /**
@@ -593,7 +652,7 @@ public class Dijkstra extends AbstractSpanningTree {
      */
     @SuppressWarnings("unchecked")
     public <T extends Edge> T getEdgeFromParent(Node target) {
-        return (T) target.<Data> getAttribute(resultAttribute).edgeFromParent;
+        return (T) getData(target).edgeFromParent;
     }
 
     /**
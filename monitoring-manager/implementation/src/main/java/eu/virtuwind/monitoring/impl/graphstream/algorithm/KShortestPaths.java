@@ -0,0 +1,309 @@
+package eu.virtuwind.monitoring.impl.graphstream.algorithm;
+
+import com.google.common.collect.Lists;
+import org.graphstream.graph.Edge;
+import org.graphstream.graph.Element;
+import org.graphstream.graph.Graph;
+import org.graphstream.graph.Node;
+import org.graphstream.graph.Path;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * <p>
+ * Yen's algorithm for the <em>k</em> shortest loopless paths between a source
+ * and a target node. The first path is the shortest path; each following path
+ * is the shortest one among the paths that deviate from a path already found
+ * at one of its nodes (the spur node), without going back through the nodes
+ * before the deviation.
+ * </p>
+ *
+ * <p>
+ * The spur paths are computed by a single {@link ConcurrentDijkstra} instance,
+ * which reuses its heap and node data from one run to the next. Instead of copying
+ * the graph, the edges and nodes excluded from a spur path are masked with a
+ * dedicated attribute (see {@link Dijkstra#setMaskAttribute(String)}) and
+ * unmasked right after the run. As in Lawler's variant, spur paths are only
+ * computed from the node where a path deviates from its parent path on, since
+ * the deviations at earlier nodes were already explored.
+ * </p>
+ *
+ * <p>
+ * The algorithm sets attributes on the elements of the graph during
+ * {@link #compute()}, so the graph must not be used by other threads
+ * meanwhile.
+ * </p>
+ *
+ * <h3>Example</h3>
+ *
+ * <pre>
+ * KShortestPaths ksp = new KShortestPaths(3, "length");
+ * ksp.init(graph);
+ * ksp.setSource(graph.getNode("A"));
+ * ksp.setTarget(graph.getNode("B"));
+ * ksp.compute();
+ * for (int i = 0; i &lt; ksp.getPathCount(); i++)
+ *     System.out.println(ksp.getPathLength(i) + " " + ksp.getPath(i));
+ * </pre>
+ */
+public class KShortestPaths implements Algorithm {
+
+    protected static class Candidate {
+        // source first
+        final Node[] nodes;
+        final Edge[] edges;
+        final double length;
+        // index of the node where the path deviates from its parent path
+        final int deviation;
+
+        Candidate(Node[] nodes, Edge[] edges, double length, int deviation) {
+            this.nodes = nodes;
+            this.edges = edges;
+            this.length = length;
+            this.deviation = deviation;
+        }
+    }
+
+    protected final int k;
+    protected final String maskAttribute;
+    protected final Dijkstra dijkstra;
+    protected Graph graph;
+    protected Node source;
+    protected Node target;
+
+    protected final List<Candidate> paths = new ArrayList<Candidate>();
+    protected final PriorityQueue<Candidate> candidates = new PriorityQueue<Candidate>(16,
+            new Comparator<Candidate>() {
+                public int compare(Candidate a, Candidate b) {
+                    int c = Double.compare(a.length, b.length);
+                    return c != 0 ? c : a.edges.length - b.edges.length;
+                }
+            });
+    protected final Set<List<Edge>> seen = new HashSet<List<Edge>>();
+    protected final List<Element> masked = new ArrayList<Element>();
+
+    /**
+     * Creates an instance that computes paths with the length of their edges.
+     *
+     * @param k               the maximum number of paths to compute, at least 1
+     * @param lengthAttribute attribute holding the length of the edges; if
+     *                        {@code null}, each edge has length one
+     */
+    public KShortestPaths(int k, String lengthAttribute) {
+        if (k < 1)
+            throw new IllegalArgumentException("k must be at least 1");
+        this.k = k;
+        this.maskAttribute = toString() + "_mask_";
+        this.dijkstra = new ConcurrentDijkstra(Dijkstra.Element.EDGE, lengthAttribute);
+        this.dijkstra.setMaskAttribute(maskAttribute);
+    }
+
+    public int getK() {
+        return k;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T extends Node> T getSource() {
+        return (T) source;
+    }
+
+    public void setSource(Node source) {
+        this.source = source;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T extends Node> T getTarget() {
+        return (T) target;
+    }
+
+    public void setTarget(Node target) {
+        this.target = target;
+    }
+
+    // *** Methods of Algorithm interface ***
+
+    public void init(Graph graph) {
+        this.graph = graph;
+        dijkstra.init(graph);
+    }
+
+    /**
+     * Computes up to <em>k</em> shortest loopless paths from the source to the
+     * target, by increasing length.
+     *
+     * @throws IllegalStateException if {@link #init(Graph)},
+     *                               {@link #setSource(Node)} or
+     *                               {@link #setTarget(Node)} have not been
+     *                               called before
+     * @complexity O(<em>k</em><em>p</em>(<em>m</em> + <em>n</em>log<em>n</em>))
+     * where <em>p</em> is the number of nodes of the longest path found,
+     * <em>m</em> is the number of edges and <em>n</em> is the number of nodes
+     * in the graph
+     */
+    public void compute() {
+        if (graph == null)
+            throw new IllegalStateException(
+                    "No graph specified. Call init() first.");
+        if (source == null || target == null)
+            throw new IllegalStateException(
+                    "No source or target specified. Call setSource() and setTarget() first.");
+        paths.clear();
+        candidates.clear();
+        seen.clear();
+
+        Candidate shortest = spurPath(null, 0);
+        if (shortest == null)
+            return;
+        seen.add(Arrays.asList(shortest.edges));
+        paths.add(shortest);
+        while (paths.size() < k) {
+            Candidate previous = paths.get(paths.size() - 1);
+            for (int i = previous.deviation; i < previous.edges.length; i++) {
+                maskDeviations(previous, i);
+                Candidate candidate = spurPath(previous, i);
+                unmask();
+                if (candidate != null && seen.add(Arrays.asList(candidate.edges)))
+                    candidates.add(candidate);
+            }
+            if (candidates.isEmpty())
+                break;
+            paths.add(candidates.poll());
+        }
+    }
+
+    /**
+     * Removes the attributes used by the algorithm from the graph. Solution
+     * access methods can still be used after calling this method.
+     */
+    public void clear() {
+        unmask();
+        dijkstra.clear();
+    }
+
+    // *** Methods to access the solution ***
+
+    /**
+     * @return the number of paths found, at most <em>k</em>; 0 if the target
+     * is not reachable from the source
+     */
+    public int getPathCount() {
+        return paths.size();
+    }
+
+    /**
+     * @param i the rank of a path, 0 for the shortest one
+     * @return the length of the path
+     */
+    public double getPathLength(int i) {
+        return paths.get(i).length;
+    }
+
+    /**
+     * Returns the edges of a path in the same order as
+     * {@link Dijkstra#getPathEdges(Node)}: the edge entering the target first.
+     *
+     * @param i the rank of a path, 0 for the shortest one
+     * @return the edges of the path
+     */
+    public List<Edge> getPathEdges(int i) {
+        return Collections.unmodifiableList(Lists.reverse(Arrays.asList(paths.get(i).edges)));
+    }
+
+    /**
+     * Returns a path as a {@link Path} object, which consumes heap memory
+     * proportional to the number of its edges. When possible, prefer
+     * {@link #getPathEdges(int)}.
+     *
+     * @param i the rank of a path, 0 for the shortest one
+     * @return the path
+     */
+    public Path getPath(int i) {
+        Candidate candidate = paths.get(i);
+        Path path = new Path();
+        path.setRoot(source);
+        for (int j = 0; j < candidate.edges.length; j++)
+            path.add(candidate.nodes[j], candidate.edges[j]);
+        return path;
+    }
+
+    // *** Helpers ***
+
+    /**
+     * Masks the elements a path deviating from {@code previous} at its node
+     * {@code spur} cannot use: the nodes before the spur node, and the edges
+     * leaving the spur node along the paths found so far that share their
+     * beginning with {@code previous}.
+     */
+    protected void maskDeviations(Candidate previous, int spur) {
+        for (int i = 0; i < spur; i++)
+            mask(previous.nodes[i]);
+        for (Candidate path : paths)
+            if (path.edges.length > spur && hasSameRoot(path, previous, spur))
+                mask(path.edges[spur]);
+    }
+
+    protected void mask(Element element) {
+        if (!element.hasAttribute(maskAttribute)) {
+            element.addAttribute(maskAttribute);
+            masked.add(element);
+        }
+    }
+
+    protected void unmask() {
+        for (Element element : masked)
+            element.removeAttribute(maskAttribute);
+        masked.clear();
+    }
+
+    protected static boolean hasSameRoot(Candidate a, Candidate b, int length) {
+        for (int i = 0; i < length; i++)
+            if (a.edges[i] != b.edges[i])
+                return false;
+        return true;
+    }
+
+    /**
+     * Runs Dijkstra from the spur node of a path and appends the shortest path
+     * to the target to the root of the path.
+     *
+     * @param root the path whose first nodes are kept, or {@code null} for the
+     *             shortest path
+     * @param spur the index of the spur node in the root path
+     * @return the path, or {@code null} if the target cannot be reached
+     */
+    protected Candidate spurPath(Candidate root, int spur) {
+        Node spurNode = root == null ? source : root.nodes[spur];
+        dijkstra.setSource(spurNode);
+        dijkstra.compute();
+        double spurLength = dijkstra.getPathLength(target);
+        if (Double.isInfinite(spurLength))
+            return null;
+
+        int spurEdges = 0;
+        for (Node node = target; node != spurNode; node = dijkstra.getParent(node))
+            spurEdges++;
+        Node[] nodes = new Node[spur + spurEdges + 1];
+        Edge[] edges = new Edge[spur + spurEdges];
+        double length = spurLength;
+        for (int i = 0; i < spur; i++) {
+            nodes[i] = root.nodes[i];
+            edges[i] = root.edges[i];
+            length += dijkstra.getLength(root.edges[i], root.nodes[i + 1]);
+        }
+        Node node = target;
+        for (int i = edges.length - 1; i >= spur; i--) {
+            nodes[i + 1] = node;
+            edges[i] = dijkstra.getEdgeFromParent(node);
+            node = edges[i].getOpposite(node);
+        }
+        nodes[spur] = spurNode;
+        return new Candidate(nodes, edges, length, spur);
+    }
+}
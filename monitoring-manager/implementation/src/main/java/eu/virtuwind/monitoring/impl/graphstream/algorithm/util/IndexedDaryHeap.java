@@ -0,0 +1,251 @@
+package eu.virtuwind.monitoring.impl.graphstream.algorithm.util;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * An indexed d-ary min-heap of int elements with double keys. Elements are
+ * integers in {@code [0, capacity)}, typically node indices, and the heap
+ * keeps for each element its key and its position in the heap array. This
+ * allows decreasing the key of an element in place, without the per-element
+ * node objects and boxed keys of {@link FibonacciHeap}.
+ * </p>
+ *
+ * <p>
+ * On sparse graphs the shallow, cache friendly layout of a d-ary heap
+ * (typically d = 4) outperforms a Fibonacci heap in Dijkstra's algorithm, in
+ * spite of the better amortized bound of the latter. All the arrays are
+ * allocated once and reused across {@link #clear()} calls.
+ * </p>
+ *
+ * <h3>Example</h3>
+ *
+ * <pre>
+ * IndexedDaryHeap heap = new IndexedDaryHeap(4, 5);
+ * heap.add(0, 20);
+ * heap.add(1, 10);
+ * heap.add(3, 50);
+ * int e1 = heap.extractMin(); // 1
+ * heap.decreaseKey(3, 5);
+ * int e2 = heap.extractMin(); // 3
+ * </pre>
+ */
+public class IndexedDaryHeap {
+    protected static final int ABSENT = -1;
+
+    protected final int arity;
+    protected int[] heap;
+    protected int[] position;
+    protected double[] keys;
+    protected int size;
+
+    /**
+     * Creates a new empty heap.
+     *
+     * @param arity    the number of children of each heap node, at least 2
+     * @param capacity the elements of the heap are in {@code [0, capacity)}
+     */
+    public IndexedDaryHeap(int arity, int capacity) {
+        if (arity < 2)
+            throw new IllegalArgumentException("The arity must be at least 2");
+        this.arity = arity;
+        heap = new int[capacity];
+        position = new int[capacity];
+        keys = new double[capacity];
+        Arrays.fill(position, ABSENT);
+        size = 0;
+    }
+
+    /**
+     * Grows the heap so that it can hold the elements in
+     * {@code [0, capacity)}. The elements already in the heap are kept.
+     *
+     * @param capacity the new capacity
+     */
+    public void ensureCapacity(int capacity) {
+        int old = position.length;
+        if (capacity > old) {
+            heap = Arrays.copyOf(heap, capacity);
+            position = Arrays.copyOf(position, capacity);
+            keys = Arrays.copyOf(keys, capacity);
+            Arrays.fill(position, old, capacity, ABSENT);
+        }
+    }
+
+    /**
+     * @return the upper bound (exclusive) of the elements the heap can hold
+     */
+    public int getCapacity() {
+        return position.length;
+    }
+
+    /**
+     * Checks if the heap is empty.
+     *
+     * @return {@code true} if the heap is empty
+     * @complexity O(1)
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns the number of elements in the heap.
+     *
+     * @return the number of elements in the heap
+     * @complexity O(1)
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Removes all the elements in the heap.
+     *
+     * @complexity O(<em>n</em>) where <em>n</em> is the number of elements in
+     *             the heap
+     */
+    public void clear() {
+        for (int i = 0; i < size; i++)
+            position[heap[i]] = ABSENT;
+        size = 0;
+    }
+
+    /**
+     * Checks if an element is in the heap.
+     *
+     * @param element an element
+     * @return {@code true} if the element is in the heap
+     * @complexity O(1)
+     */
+    public boolean contains(int element) {
+        return position[element] != ABSENT;
+    }
+
+    /**
+     * Returns the key of an element of the heap.
+     *
+     * @param element an element of the heap
+     * @return the key of the element
+     * @complexity O(1)
+     */
+    public double getKey(int element) {
+        return keys[element];
+    }
+
+    /**
+     * Adds an element to the heap.
+     *
+     * @param element an element which is not in the heap
+     * @param key     the key of the element
+     * @throws IllegalArgumentException if the element is already in the heap
+     * @complexity O(log<em>n</em>)
+     */
+    public void add(int element, double key) {
+        if (position[element] != ABSENT)
+            throw new IllegalArgumentException("Element " + element
+                    + " is already in the heap");
+        keys[element] = key;
+        heap[size] = element;
+        position[element] = size;
+        siftUp(size++);
+    }
+
+    /**
+     * Returns the element with minimal key.
+     *
+     * @return the element with minimal key
+     * @complexity O(1)
+     */
+    public int getMin() {
+        return heap[0];
+    }
+
+    /**
+     * Returns the minimal key in the heap.
+     *
+     * @return the minimal key in the heap
+     * @complexity O(1)
+     */
+    public double getMinKey() {
+        return keys[heap[0]];
+    }
+
+    /**
+     * Removes the element with minimal key from the heap.
+     *
+     * @return the removed element
+     * @complexity O(<em>d</em>log<em>n</em>/log<em>d</em>)
+     */
+    public int extractMin() {
+        int min = heap[0];
+        position[min] = ABSENT;
+        size--;
+        if (size > 0) {
+            heap[0] = heap[size];
+            position[heap[0]] = 0;
+            siftDown(0);
+        }
+        return min;
+    }
+
+    /**
+     * Decreases the key of an element of the heap.
+     *
+     * @param element an element of the heap
+     * @param key     the new key
+     * @throws IllegalArgumentException if the new key is greater than the
+     *                                  current.
+     * @complexity O(log<em>n</em>/log<em>d</em>)
+     */
+    public void decreaseKey(int element, double key) {
+        if (key > keys[element])
+            throw new IllegalArgumentException(
+                    "The new key must be less than the old");
+        keys[element] = key;
+        siftUp(position[element]);
+    }
+
+    protected void siftUp(int i) {
+        int element = heap[i];
+        double key = keys[element];
+        while (i > 0) {
+            int parent = (i - 1) / arity;
+            int parentElement = heap[parent];
+            if (keys[parentElement] <= key)
+                break;
+            heap[i] = parentElement;
+            position[parentElement] = i;
+            i = parent;
+        }
+        heap[i] = element;
+        position[element] = i;
+    }
+
+    protected void siftDown(int i) {
+        int element = heap[i];
+        double key = keys[element];
+        while (true) {
+            int first = i * arity + 1;
+            if (first >= size)
+                break;
+            int last = Math.min(first + arity, size);
+            int min = first;
+            double minKey = keys[heap[first]];
+            for (int c = first + 1; c < last; c++) {
+                double k = keys[heap[c]];
+                if (k < minKey) {
+                    min = c;
+                    minKey = k;
+                }
+            }
+            if (key <= minKey)
+                break;
+            heap[i] = heap[min];
+            position[heap[i]] = i;
+            i = min;
+        }
+        heap[i] = element;
+        position[element] = i;
+    }
+}
@@ -0,0 +1,110 @@
+package eu.virtuwind.monitoring.impl.inventory;
+
+import eu.virtuwind.monitoring.impl.TopologyGraph;
+import org.opendaylight.controller.md.sal.binding.api.DataBroker;
+import org.opendaylight.controller.md.sal.binding.api.DataObjectModification;
+import org.opendaylight.controller.md.sal.binding.api.DataTreeChangeListener;
+import org.opendaylight.controller.md.sal.binding.api.DataTreeIdentifier;
+import org.opendaylight.controller.md.sal.binding.api.DataTreeModification;
+import org.opendaylight.controller.md.sal.common.api.data.LogicalDatastoreType;
+import org.opendaylight.yang.gen.v1.urn.tbd.params.xml.ns.yang.network.topology.rev131021.network.topology.Topology;
+import org.opendaylight.yang.gen.v1.urn.tbd.params.xml.ns.yang.network.topology.rev131021.network.topology.topology.Link;
+import org.opendaylight.yang.gen.v1.urn.tbd.params.xml.ns.yang.network.topology.rev131021.network.topology.topology.Node;
+import org.opendaylight.yangtools.concepts.ListenerRegistration;
+import org.opendaylight.yangtools.yang.binding.InstanceIdentifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+
+/**
+ * Keeps the {@link TopologyGraph} in sync with the flow:1 topology in the operational data store. Node and link
+ * changes are applied to the graph one by one as they are reported by the data store, so the graph is usable as
+ * soon as the topology is populated and later changes cost O(delta) instead of a full topology read.
+ */
+public class IncrementalTopologyListener implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IncrementalTopologyListener.class);
+    private final DataBroker dataBroker;
+    private final TopologyGraph topologyGraph;
+    private ListenerRegistration<NodeListener> nodeListenerReg;
+    private ListenerRegistration<LinkListener> linkListenerReg;
+
+    public IncrementalTopologyListener(DataBroker dataBroker, TopologyGraph topologyGraph) {
+        this.dataBroker = dataBroker;
+        this.topologyGraph = topologyGraph;
+    }
+
+    /**
+     * Registers the node and link listeners. The data store replays the current topology to newly registered
+     * listeners, so no initial read is needed.
+     */
+    public void register() {
+        InstanceIdentifier<Topology> topologyIid = TopologyReader.getTopologyIdentifier();
+        nodeListenerReg = dataBroker.registerDataTreeChangeListener(
+                new DataTreeIdentifier<>(LogicalDatastoreType.OPERATIONAL, topologyIid.child(Node.class)),
+                new NodeListener());
+        linkListenerReg = dataBroker.registerDataTreeChangeListener(
+                new DataTreeIdentifier<>(LogicalDatastoreType.OPERATIONAL, topologyIid.child(Link.class)),
+                new LinkListener());
+        LOG.info("Listening for changes of the flow:1 topology");
+    }
+
+    @Override
+    public void close() {
+        if (nodeListenerReg != null) {
+            nodeListenerReg.close();
+        }
+        if (linkListenerReg != null) {
+            linkListenerReg.close();
+        }
+    }
+
+    private final class NodeListener implements DataTreeChangeListener<Node> {
+        @Override
+        public void onDataTreeChanged(Collection<DataTreeModification<Node>> changes) {
+            for (DataTreeModification<Node> change : changes) {
+                DataObjectModification<Node> node = change.getRootNode();
+                switch (node.getModificationType()) {
+                    case WRITE:
+                        if (node.getDataBefore() == null) {
+                            topologyGraph.addTopologyNode(node.getDataAfter());
+                        }
+                        break;
+                    case DELETE:
+                        topologyGraph.removeTopologyNode(node.getDataBefore());
+                        break;
+                    default:
+                        // termination point updates do not change the graph
+                        break;
+                }
+            }
+        }
+    }
+
+    private final class LinkListener implements DataTreeChangeListener<Link> {
+        @Override
+        public void onDataTreeChanged(Collection<DataTreeModification<Link>> changes) {
+            for (DataTreeModification<Link> change : changes) {
+                DataObjectModification<Link> link = change.getRootNode();
+                switch (link.getModificationType()) {
+                    case WRITE:
+                        if (link.getDataBefore() != null) {
+                            topologyGraph.removeTopologyLink(link.getDataBefore());
+                        }
+                        topologyGraph.addTopologyLink(link.getDataAfter());
+                        break;
+                    case SUBTREE_MODIFIED:
+                        topologyGraph.removeTopologyLink(link.getDataBefore());
+                        topologyGraph.addTopologyLink(link.getDataAfter());
+                        break;
+                    case DELETE:
+                        topologyGraph.removeTopologyLink(link.getDataBefore());
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+    }
+}
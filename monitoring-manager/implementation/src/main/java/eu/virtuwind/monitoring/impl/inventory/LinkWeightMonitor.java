@@ -0,0 +1,273 @@
+package eu.virtuwind.monitoring.impl.inventory;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import eu.virtuwind.monitoring.impl.TopologyGraph;
+import org.opendaylight.controller.md.sal.binding.api.DataBroker;
+import org.opendaylight.controller.md.sal.binding.api.ReadOnlyTransaction;
+import org.opendaylight.controller.md.sal.common.api.data.LogicalDatastoreType;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.inventory.rev130819.FlowCapableNodeConnector;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.Nodes;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.node.NodeConnector;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.nodes.Node;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.model.statistics.types.rev130925.duration.Duration;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.port.statistics.rev131214.FlowCapableNodeConnectorStatisticsData;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.port.statistics.rev131214.flow.capable.node.connector.statistics.FlowCapableNodeConnectorStatistics;
+import org.opendaylight.yangtools.yang.binding.InstanceIdentifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigInteger;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Weighs the links of the {@link TopologyGraph} by their load, so that paths avoid busy links. The transmitted byte
+ * counters of the switch ports are sampled periodically from the operational inventory, turned into a utilization
+ * of the port speed and smoothed with an exponentially weighted moving average. A link reported as overloaded by a
+ * linkOverloaded notification counts as fully utilized.
+ *
+ * <p>
+ * Both directions of a link get the length of the busier direction, between one for an idle link and
+ * {@code 1 + MAX_EXTRA_WEIGHT} for a saturated one, rounded to {@code WEIGHT_STEP}. The lengths of all the links are
+ * applied as one batch per sampling round, and only the lengths that moved by a step change the topology version, so
+ * that small load fluctuations do not cause path recomputations. Overload notifications received close together are
+ * applied in the same extra round. Ports whose statistics carry no duration are not sampled, and the ports of links
+ * that left the topology are forgotten.
+ * </p>
+ */
+public class LinkWeightMonitor implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LinkWeightMonitor.class);
+    private static final double SMOOTHING = 0.3;
+    private static final double MAX_EXTRA_WEIGHT = 4;
+    private static final double WEIGHT_STEP = 0.5;
+    private static final long OVERLOAD_DELAY_MILLIS = 500;
+
+    private final DataBroker dataBroker;
+    private final TopologyGraph topologyGraph;
+    private final ScheduledExecutorService executor;
+    // only used by the thread of the executor
+    private final Map<String, PortSample> lastSamples = new HashMap<>();
+    private final Map<String, Double> utilizations = new HashMap<>();
+    private final Set<String> overloadedPorts = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final AtomicBoolean overloadRoundScheduled = new AtomicBoolean();
+    private final AtomicLong rounds = new AtomicLong();
+    private final AtomicLong weightUpdates = new AtomicLong();
+
+    public LinkWeightMonitor(DataBroker dataBroker, TopologyGraph topologyGraph) {
+        this.dataBroker = dataBroker;
+        this.topologyGraph = topologyGraph;
+        this.executor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("link-weights-%d").setDaemon(true).build());
+    }
+
+    /**
+     * Starts sampling the port statistics.
+     *
+     * @param samplePeriodSeconds the time between two sampling rounds, in seconds
+     */
+    public void start(long samplePeriodSeconds) {
+        Preconditions.checkArgument(samplePeriodSeconds > 0, "samplePeriodSeconds should be positive.");
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                runRound(true);
+            }
+        }, samplePeriodSeconds, samplePeriodSeconds, TimeUnit.SECONDS);
+        LOG.info("Sampling the port statistics every {} seconds", samplePeriodSeconds);
+    }
+
+    /**
+     * Marks a link as overloaded. Both directions of the link are weighed as fully utilized shortly after, together
+     * with the other links reported in the meantime.
+     *
+     * @param linkId the port the link is named after
+     */
+    public void markOverloaded(String linkId) {
+        overloadedPorts.add(linkId);
+        if (overloadRoundScheduled.compareAndSet(false, true)) {
+            executor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    runRound(false);
+                }
+            }, OVERLOAD_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * @return the number of rounds run so far
+     */
+    public long getRounds() {
+        return rounds.get();
+    }
+
+    /**
+     * @return the number of rounds that changed the length of a link so far
+     */
+    public long getWeightUpdates() {
+        return weightUpdates.get();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private void runRound(boolean sampleStatistics) {
+        try {
+            if (sampleStatistics) {
+                sampleStatistics();
+            } else {
+                overloadRoundScheduled.set(false);
+            }
+            for (Iterator<String> ports = overloadedPorts.iterator(); ports.hasNext(); ) {
+                utilizations.put(ports.next(), 1.0);
+                ports.remove();
+            }
+            forgetRemovedLinks();
+            rounds.incrementAndGet();
+            if (topologyGraph.setEdgeWeights(computeWeights())) {
+                weightUpdates.incrementAndGet();
+            }
+        } catch (Exception e) {
+            LOG.warn("Failed to update the link weights", e);
+        }
+    }
+
+    /**
+     * Reads the port statistics of all the switches and folds the utilization of every port since the last sample
+     * into its moving average.
+     */
+    private void sampleStatistics() {
+        ReadOnlyTransaction transaction = dataBroker.newReadOnlyTransaction();
+        Optional<Nodes> nodes;
+        try {
+            nodes = transaction.read(LogicalDatastoreType.OPERATIONAL, InstanceIdentifier.create(Nodes.class))
+                    .checkedGet();
+        } catch (Exception e) {
+            LOG.warn("Failed to read the port statistics", e);
+            return;
+        } finally {
+            transaction.close();
+        }
+        if (!nodes.isPresent() || nodes.get().getNode() == null) {
+            return;
+        }
+        for (Node node : nodes.get().getNode()) {
+            if (node.getNodeConnector() == null) {
+                continue;
+            }
+            for (NodeConnector connector : node.getNodeConnector()) {
+                samplePort(connector);
+            }
+        }
+    }
+
+    private void samplePort(NodeConnector connector) {
+        FlowCapableNodeConnectorStatisticsData data =
+                connector.getAugmentation(FlowCapableNodeConnectorStatisticsData.class);
+        FlowCapableNodeConnector flowCapable = connector.getAugmentation(FlowCapableNodeConnector.class);
+        if (data == null || flowCapable == null || flowCapable.getCurrentSpeed() == null
+                || flowCapable.getCurrentSpeed() == 0) {
+            return;
+        }
+        FlowCapableNodeConnectorStatistics statistics = data.getFlowCapableNodeConnectorStatistics();
+        if (statistics == null || statistics.getBytes() == null || statistics.getBytes().getTransmitted() == null) {
+            return;
+        }
+        long durationNanos = toNanos(statistics.getDuration());
+        if (durationNanos < 0) {
+            // without the duration of the counters, their rate cannot be told
+            return;
+        }
+        String port = connector.getId().getValue();
+        PortSample sample = new PortSample(statistics.getBytes().getTransmitted(), durationNanos);
+        PortSample last = lastSamples.put(port, sample);
+        if (last == null || sample.durationNanos <= last.durationNanos) {
+            // first sample, statistics not refreshed since, or counters reset
+            return;
+        }
+        double bits = sample.transmittedBytes.subtract(last.transmittedBytes).doubleValue() * 8;
+        double seconds = (sample.durationNanos - last.durationNanos) / 1e9;
+        // the current speed is in kbit/s
+        double utilization = Math.max(0, Math.min(1, bits / seconds / (flowCapable.getCurrentSpeed() * 1000.0)));
+        Double average = utilizations.get(port);
+        utilizations.put(port, average == null ? utilization
+                : SMOOTHING * utilization + (1 - SMOOTHING) * average);
+    }
+
+    /**
+     * Drops the samples and the utilization of the ports whose link is no longer in the topology, so that removed
+     * ports and links are not weighed forever, and a link that comes back starts from fresh samples.
+     */
+    private void forgetRemovedLinks() {
+        for (Iterator<String> ports = lastSamples.keySet().iterator(); ports.hasNext(); ) {
+            if (topologyGraph.getLinkEndNode(ports.next()) == null) {
+                ports.remove();
+            }
+        }
+        for (Iterator<String> ports = utilizations.keySet().iterator(); ports.hasNext(); ) {
+            if (topologyGraph.getLinkEndNode(ports.next()) == null) {
+                ports.remove();
+            }
+        }
+    }
+
+    /**
+     * @return the length of both directions of every link with a known utilization, by edge id
+     */
+    private Map<String, Double> computeWeights() {
+        Map<String, Double> weights = new HashMap<>();
+        for (Map.Entry<String, Double> entry : utilizations.entrySet()) {
+            String port = entry.getKey();
+            String peer = topologyGraph.getLinkEndNode(port);
+            double utilization = entry.getValue();
+            if (peer != null && peer.contains("open")) {
+                Double peerUtilization = utilizations.get(peer);
+                if (peerUtilization != null) {
+                    utilization = Math.max(utilization, peerUtilization);
+                }
+                weights.put(peer, toWeight(utilization));
+            }
+            weights.put(port, toWeight(utilization));
+        }
+        return weights;
+    }
+
+    private static double toWeight(double utilization) {
+        return 1 + Math.round(utilization * MAX_EXTRA_WEIGHT / WEIGHT_STEP) * WEIGHT_STEP;
+    }
+
+    /**
+     * @return the duration in nanoseconds, or -1 if the statistics carry none
+     */
+    private static long toNanos(Duration duration) {
+        if (duration == null || duration.getSecond() == null) {
+            return -1;
+        }
+        long nanos = duration.getNanosecond() == null ? 0 : duration.getNanosecond().getValue();
+        return duration.getSecond().getValue() * 1000000000L + nanos;
+    }
+
+    private static final class PortSample {
+        private final BigInteger transmittedBytes;
+        private final long durationNanos;
+
+        private PortSample(BigInteger transmittedBytes, long durationNanos) {
+            this.transmittedBytes = transmittedBytes;
+            this.durationNanos = durationNanos;
+        }
+    }
+}
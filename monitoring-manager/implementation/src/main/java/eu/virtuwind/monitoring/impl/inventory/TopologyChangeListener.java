@@ -0,0 +1,54 @@
+package eu.virtuwind.monitoring.impl.inventory;
+
+import eu.virtuwind.monitoring.impl.TopologyGraph;
+import eu.virtuwind.monitoring.impl.flow.FastReroute;
+import org.opendaylight.yang.gen.v1.urn.eu.virtuwind.monitoring.rev150722.MonitoringListener;
+import org.opendaylight.yang.gen.v1.urn.eu.virtuwind.monitoring.rev150722.TopologyChanged;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Applies the topologyChanged notifications of the monitoring model to the {@link TopologyGraph}. A failed link is
+ * removed from the graph as soon as it is reported, ahead of the flow:1 topology; the shortest path trees computed
+ * before are then repaired on their next use instead of being computed again. The paths using the link are switched
+ * to their backup path by the {@link FastReroute}. An overloaded link is weighed as fully utilized by the
+ * {@link LinkWeightMonitor}.
+ */
+public class TopologyChangeListener implements MonitoringListener {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TopologyChangeListener.class);
+    private final TopologyGraph topologyGraph;
+    private final FastReroute fastReroute;
+    private final LinkWeightMonitor linkWeightMonitor;
+
+    public TopologyChangeListener(TopologyGraph topologyGraph, FastReroute fastReroute,
+                                  LinkWeightMonitor linkWeightMonitor) {
+        this.topologyGraph = topologyGraph;
+        this.fastReroute = fastReroute;
+        this.linkWeightMonitor = linkWeightMonitor;
+    }
+
+    @Override
+    public void onTopologyChanged(TopologyChanged notification) {
+        if (notification == null || notification.getTopologyChange() == null || notification.getLinkId() == null) {
+            return;
+        }
+        switch (notification.getTopologyChange()) {
+            case LinkFailed:
+                if (topologyGraph.removeLink(notification.getLinkId())) {
+                    LOG.info("Link {} failed, removed from the topology", notification.getLinkId());
+                } else {
+                    LOG.debug("Link {} failed, not in the topology", notification.getLinkId());
+                }
+                fastReroute.onLinkFailed(notification.getLinkId());
+                break;
+            case LinkOverloaded:
+                LOG.debug("Link {} overloaded", notification.getLinkId());
+                linkWeightMonitor.markOverloaded(notification.getLinkId());
+                break;
+            default:
+                LOG.debug("Ignoring {} of link {}", notification.getTopologyChange(), notification.getLinkId());
+                break;
+        }
+    }
+}
@@ -26,15 +26,23 @@ public class TopologyReader {
 
 
     private static final Logger LOG = LoggerFactory.getLogger(TopologyReader.class);
+    private static final TopologyId FLOW_TOPOLOGY_ID = new TopologyId("flow:1");
 
 
+    /**
+     * @return the identifier of the flow:1 topology maintained by the openflowplugin
+     */
+    public static InstanceIdentifier<Topology> getTopologyIdentifier() {
+        return InstanceIdentifier.builder(NetworkTopology.class)
+                .child(Topology.class, new TopologyKey(FLOW_TOPOLOGY_ID)).build();
+    }
+
 
     public static List<Link> getAllLinks(DataBroker db) {
         List<Link> linkList = new ArrayList<>();
 
         try {
-            TopologyId topoId = new TopologyId("flow:1");
-            InstanceIdentifier<Topology> nodesIid = InstanceIdentifier.builder(NetworkTopology.class).child(Topology.class, new TopologyKey(topoId)).toInstance();
+            InstanceIdentifier<Topology> nodesIid = getTopologyIdentifier();
             ReadOnlyTransaction nodesTransaction = db.newReadOnlyTransaction();
             CheckedFuture<Optional<Topology>, ReadFailedException> nodesFuture = nodesTransaction
                     .read(LogicalDatastoreType.OPERATIONAL, nodesIid);
@@ -56,8 +64,7 @@ public class TopologyReader {
         List<Node> nodeList = new ArrayList<>();
 
         try {
-            TopologyId topoId = new TopologyId("flow:1");
-            InstanceIdentifier<Topology> nodesIid = InstanceIdentifier.builder(NetworkTopology.class).child(Topology.class, new TopologyKey(topoId)).toInstance();
+            InstanceIdentifier<Topology> nodesIid = getTopologyIdentifier();
             ReadOnlyTransaction nodesTransaction = db.newReadOnlyTransaction();
             CheckedFuture<Optional<Topology>, ReadFailedException> nodesFuture = nodesTransaction
                     .read(LogicalDatastoreType.OPERATIONAL, nodesIid);
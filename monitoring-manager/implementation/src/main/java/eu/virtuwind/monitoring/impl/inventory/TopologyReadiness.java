@@ -0,0 +1,106 @@
+package eu.virtuwind.monitoring.impl.inventory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import eu.virtuwind.monitoring.impl.TopologyGraph;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tells when the {@link TopologyGraph} is ready for path computation: once it holds at least one link and its version
+ * has not changed for a quiet period, that is once the data store has replayed the flow:1 topology to the
+ * {@link IncrementalTopologyListener} and the switches and hosts stopped showing up. If the topology does not settle,
+ * it is considered ready after a maximum wait anyway.
+ */
+public class TopologyReadiness implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TopologyReadiness.class);
+    private static final long MIN_CHECK_PERIOD_MILLIS = 10;
+
+    private final TopologyGraph topologyGraph;
+    private final long quietMillis;
+    private final long maxWaitMillis;
+    private final ScheduledExecutorService executor;
+    // only used by the thread of the executor
+    private long lastVersion = -1;
+    private long lastChangeNanos;
+    private long startNanos;
+    private boolean ready;
+
+    /**
+     * @param topologyGraph the topology
+     * @param quietMillis   the time the version must stay unchanged, in milliseconds
+     * @param maxWaitMillis the time after which the topology is ready whatever its state, in milliseconds
+     */
+    public TopologyReadiness(TopologyGraph topologyGraph, long quietMillis, long maxWaitMillis) {
+        Preconditions.checkArgument(quietMillis > 0, "quietMillis should be positive.");
+        Preconditions.checkArgument(maxWaitMillis >= quietMillis, "maxWaitMillis should not be less than quietMillis.");
+        this.topologyGraph = topologyGraph;
+        this.quietMillis = quietMillis;
+        this.maxWaitMillis = maxWaitMillis;
+        this.executor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("topology-readiness-%d").setDaemon(true).build());
+    }
+
+    /**
+     * Starts watching the topology. The callback is run once, on the thread of this instance, when the topology is
+     * ready.
+     *
+     * @param onReady the callback
+     */
+    public void start(final Runnable onReady) {
+        Preconditions.checkNotNull(onReady, "onReady should not be null.");
+        final long checkPeriodMillis = Math.max(MIN_CHECK_PERIOD_MILLIS, quietMillis / 4);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                startNanos = System.nanoTime();
+                lastChangeNanos = startNanos;
+            }
+        });
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                if (!ready && check()) {
+                    ready = true;
+                    try {
+                        onReady.run();
+                    } catch (RuntimeException e) {
+                        LOG.warn("Failed to activate on a ready topology", e);
+                    } finally {
+                        executor.shutdown();
+                    }
+                }
+            }
+        }, checkPeriodMillis, checkPeriodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private boolean check() {
+        long now = System.nanoTime();
+        long version = topologyGraph.getVersion();
+        if (version != lastVersion) {
+            lastVersion = version;
+            lastChangeNanos = now;
+        }
+        long waitedMillis = TimeUnit.NANOSECONDS.toMillis(now - startNanos);
+        if (waitedMillis >= maxWaitMillis) {
+            LOG.info("Topology not settled after {} ms, activating anyway", waitedMillis);
+            return true;
+        }
+        if (TimeUnit.NANOSECONDS.toMillis(now - lastChangeNanos) >= quietMillis
+                && topologyGraph.getCompactGraph().getSlotCount() > 0) {
+            LOG.info("Topology settled at version {} after {} ms", version, waitedMillis);
+            return true;
+        }
+        return false;
+    }
+}
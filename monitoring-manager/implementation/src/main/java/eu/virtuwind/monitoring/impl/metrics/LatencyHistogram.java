@@ -0,0 +1,106 @@
+package eu.virtuwind.monitoring.impl.metrics;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of latencies in nanoseconds, laid out like an HdrHistogram: values are counted in buckets
+ * whose width doubles with every power of two, each split into {@code 2^SUB_BUCKET_BITS} equal sub-buckets, so that
+ * any recorded value is known within about 3% whatever its magnitude. Recording a value costs a few shifts and one
+ * atomic increment; the histogram covers the whole range of {@code long} in a fixed 15 KB array.
+ *
+ * <p>
+ * The histogram counts every value recorded since it was created. Percentiles read while values are being recorded
+ * are approximate.
+ * </p>
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray((64 - SUB_BUCKET_BITS) * SUB_BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * @param nanos a latency in nanoseconds; negative values, e.g. from a clock adjustment, count as zero
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(indexOf(value));
+        count.incrementAndGet();
+        totalNanos.addAndGet(value);
+        long max = maxNanos.get();
+        while (value > max && !maxNanos.compareAndSet(max, value)) {
+            max = maxNanos.get();
+        }
+    }
+
+    /**
+     * @return the number of recorded values
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    /**
+     * @return the mean of the recorded values, 0 if there are none
+     */
+    public double getMeanNanos() {
+        long n = count.get();
+        return n == 0 ? 0 : (double) totalNanos.get() / n;
+    }
+
+    /**
+     * @param percentile the percentile, between 0 and 100
+     * @return the value below which the given percentage of the recorded values fall, up to the precision of the
+     * buckets; 0 if there are none
+     */
+    public long getPercentileNanos(double percentile) {
+        Preconditions.checkArgument(percentile >= 0 && percentile <= 100, "percentile should be between 0 and 100.");
+        long total = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            total += counts.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(highestValueOf(i), maxNanos.get());
+            }
+        }
+        return maxNanos.get();
+    }
+
+    /**
+     * Values below {@code 2 * SUB_BUCKETS} have a bucket each; above, a value keeps its {@code SUB_BUCKET_BITS + 1}
+     * highest bits, and the number of dropped bits selects the group of sub-buckets.
+     */
+    private static int indexOf(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    private static long highestValueOf(int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long top = index - shift * SUB_BUCKETS;
+        return (top << shift) + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,72 @@
+package eu.virtuwind.monitoring.impl.metrics;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * The count, mean and percentiles of a {@link LatencyHistogram} at one point in time, in microseconds. Exposed over
+ * JMX as composite data.
+ */
+public final class LatencySummary {
+    private final long count;
+    private final double meanMicros;
+    private final long p50Micros;
+    private final long p90Micros;
+    private final long p99Micros;
+    private final long p999Micros;
+    private final long maxMicros;
+
+    @ConstructorProperties({"count", "meanMicros", "p50Micros", "p90Micros", "p99Micros", "p999Micros", "maxMicros"})
+    public LatencySummary(long count, double meanMicros, long p50Micros, long p90Micros, long p99Micros,
+                          long p999Micros, long maxMicros) {
+        this.count = count;
+        this.meanMicros = meanMicros;
+        this.p50Micros = p50Micros;
+        this.p90Micros = p90Micros;
+        this.p99Micros = p99Micros;
+        this.p999Micros = p999Micros;
+        this.maxMicros = maxMicros;
+    }
+
+    /**
+     * @param histogram a histogram of latencies in nanoseconds
+     * @return the summary of the values recorded so far
+     */
+    public static LatencySummary of(LatencyHistogram histogram) {
+        return new LatencySummary(histogram.getCount(), histogram.getMeanNanos() / 1000,
+                toMicros(histogram.getPercentileNanos(50)), toMicros(histogram.getPercentileNanos(90)),
+                toMicros(histogram.getPercentileNanos(99)), toMicros(histogram.getPercentileNanos(99.9)),
+                toMicros(histogram.getMaxNanos()));
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMeanMicros() {
+        return meanMicros;
+    }
+
+    public long getP50Micros() {
+        return p50Micros;
+    }
+
+    public long getP90Micros() {
+        return p90Micros;
+    }
+
+    public long getP99Micros() {
+        return p99Micros;
+    }
+
+    public long getP999Micros() {
+        return p999Micros;
+    }
+
+    public long getMaxMicros() {
+        return maxMicros;
+    }
+
+    private static long toMicros(long nanos) {
+        return (nanos + 999) / 1000;
+    }
+}
@@ -0,0 +1,266 @@
+package eu.virtuwind.monitoring.impl.metrics;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import eu.virtuwind.monitoring.impl.TopologyGraph;
+import eu.virtuwind.monitoring.impl.TopologySnapshot;
+import eu.virtuwind.monitoring.impl.flow.FlowBatcher;
+import eu.virtuwind.monitoring.impl.flow.ReactiveFlowWriter;
+import eu.virtuwind.monitoring.impl.routing.PathCache;
+import eu.virtuwind.monitoring.impl.routing.ShortestPathTreeCache;
+import org.opendaylight.controller.md.sal.binding.api.DataBroker;
+import org.opendaylight.controller.md.sal.binding.api.WriteTransaction;
+import org.opendaylight.controller.md.sal.common.api.data.LogicalDatastoreType;
+import org.opendaylight.yang.gen.v1.urn.eu.virtuwind.monitoring.rev150722.RoutingStatistics;
+import org.opendaylight.yang.gen.v1.urn.eu.virtuwind.monitoring.rev150722.RoutingStatisticsBuilder;
+import org.opendaylight.yang.gen.v1.urn.eu.virtuwind.monitoring.rev150722.routing.statistics.AddFlowLatencyBuilder;
+import org.opendaylight.yang.gen.v1.urn.eu.virtuwind.monitoring.rev150722.routing.statistics.PathComputationLatencyBuilder;
+import org.opendaylight.yangtools.yang.binding.InstanceIdentifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects the metrics of the reactive routing pipeline from the counters and histograms of its components, and
+ * exposes them over JMX, as {@value #OBJECT_NAME}, and as the routing-statistics container of the operational data
+ * store. The components only count; the metrics are computed when they are read, so that collecting them costs
+ * nothing on the path of an ARP. The data store and the flow rate are refreshed once per publication period.
+ */
+public class RoutingMetrics implements RoutingMetricsMXBean, AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RoutingMetrics.class);
+    public static final String OBJECT_NAME = "eu.virtuwind.monitoring:type=RoutingMetrics";
+    private static final InstanceIdentifier<RoutingStatistics> STATISTICS_IID =
+            InstanceIdentifier.create(RoutingStatistics.class);
+
+    private final DataBroker dataBroker;
+    private final TopologyGraph topologyGraph;
+    private final ReactiveFlowWriter reactiveFlowWriter;
+    private final PathCache pathCache;
+    private final ShortestPathTreeCache treeCache;
+    private final FlowBatcher flowBatcher;
+    private final ScheduledExecutorService executor;
+    private ObjectName objectName;
+    // only written by the thread of the executor
+    private long lastFlowsProgrammed;
+    private long lastPublicationNanos;
+    private volatile double flowsProgrammedPerSecond;
+
+    public RoutingMetrics(DataBroker dataBroker, TopologyGraph topologyGraph, ReactiveFlowWriter reactiveFlowWriter,
+                          PathCache pathCache, ShortestPathTreeCache treeCache, FlowBatcher flowBatcher) {
+        this.dataBroker = dataBroker;
+        this.topologyGraph = topologyGraph;
+        this.reactiveFlowWriter = reactiveFlowWriter;
+        this.pathCache = pathCache;
+        this.treeCache = treeCache;
+        this.flowBatcher = flowBatcher;
+        this.executor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("routing-metrics-%d").setDaemon(true).build());
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server and starts publishing them to the data store.
+     *
+     * @param publishPeriodSeconds the time between two publications, in seconds
+     */
+    public void start(long publishPeriodSeconds) {
+        Preconditions.checkArgument(publishPeriodSeconds > 0, "publishPeriodSeconds should be positive.");
+        registerMBean();
+        lastPublicationNanos = System.nanoTime();
+        executor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    publish();
+                } catch (Exception e) {
+                    LOG.warn("Failed to publish the routing statistics", e);
+                }
+            }
+        }, publishPeriodSeconds, publishPeriodSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops publishing, removes the statistics from the data store and unregisters the MBean.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        WriteTransaction transaction = dataBroker.newWriteOnlyTransaction();
+        transaction.delete(LogicalDatastoreType.OPERATIONAL, STATISTICS_IID);
+        transaction.submit();
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException e) {
+                LOG.debug("Failed to unregister {}", objectName, e);
+            }
+        }
+    }
+
+    @Override
+    public long getArpsReceived() {
+        return reactiveFlowWriter.getReceivedArps();
+    }
+
+    @Override
+    public long getArpsDeduplicated() {
+        return reactiveFlowWriter.getDeduplicatedArps();
+    }
+
+    @Override
+    public long getArpsDropped() {
+        return reactiveFlowWriter.getDroppedArps();
+    }
+
+    @Override
+    public long getArpsBuffered() {
+        return reactiveFlowWriter.getBufferedArps();
+    }
+
+    @Override
+    public LatencySummary getPathComputationLatency() {
+        return LatencySummary.of(reactiveFlowWriter.getPathComputationLatency());
+    }
+
+    @Override
+    public long getPathCacheHits() {
+        return pathCache.getHits();
+    }
+
+    @Override
+    public long getPathCacheMisses() {
+        return pathCache.getMisses();
+    }
+
+    @Override
+    public double getPathCacheHitRatio() {
+        return ratio(pathCache.getHits(), pathCache.getMisses());
+    }
+
+    @Override
+    public double getTreeCacheHitRatio() {
+        return ratio(treeCache.getHits(), treeCache.getMisses());
+    }
+
+    @Override
+    public long getFlowsProgrammed() {
+        return flowBatcher.getSucceededFlows();
+    }
+
+    @Override
+    public double getFlowsProgrammedPerSecond() {
+        return flowsProgrammedPerSecond;
+    }
+
+    @Override
+    public LatencySummary getAddFlowLatency() {
+        return LatencySummary.of(flowBatcher.getAddFlowLatency());
+    }
+
+    @Override
+    public long getAddFlowFailures() {
+        return flowBatcher.getFailedFlows();
+    }
+
+    @Override
+    public long getTopologyVersion() {
+        return topologyGraph.getVersion();
+    }
+
+    @Override
+    public int getTopologyNodes() {
+        return topologyGraph.getCompactGraph().getNodeCount();
+    }
+
+    @Override
+    public int getTopologyEdges() {
+        return topologyGraph.getCompactGraph().getSlotCount();
+    }
+
+    private void registerMBean() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                // left behind by a previous instance of the module
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+            objectName = name;
+        } catch (JMException e) {
+            LOG.warn("Failed to register the routing metrics over JMX", e);
+        }
+    }
+
+    /**
+     * Updates the flow rate and writes all the metrics to the operational data store.
+     */
+    private void publish() throws Exception {
+        long now = System.nanoTime();
+        long flowsProgrammed = getFlowsProgrammed();
+        flowsProgrammedPerSecond = (flowsProgrammed - lastFlowsProgrammed) / ((now - lastPublicationNanos) / 1e9);
+        lastFlowsProgrammed = flowsProgrammed;
+        lastPublicationNanos = now;
+
+        TopologySnapshot snapshot = topologyGraph.getSnapshot();
+        LatencySummary pathLatency = getPathComputationLatency();
+        LatencySummary addFlowLatency = getAddFlowLatency();
+        RoutingStatistics statistics = new RoutingStatisticsBuilder()
+                .setArpsReceived(BigInteger.valueOf(getArpsReceived()))
+                .setArpsDeduplicated(BigInteger.valueOf(getArpsDeduplicated()))
+                .setArpsDropped(BigInteger.valueOf(getArpsDropped()))
+                .setArpsBuffered(BigInteger.valueOf(getArpsBuffered()))
+                .setPathComputationLatency(new PathComputationLatencyBuilder()
+                        .setCount(BigInteger.valueOf(pathLatency.getCount()))
+                        .setMeanMicros(toDecimal(pathLatency.getMeanMicros(), 3))
+                        .setP50Micros(BigInteger.valueOf(pathLatency.getP50Micros()))
+                        .setP90Micros(BigInteger.valueOf(pathLatency.getP90Micros()))
+                        .setP99Micros(BigInteger.valueOf(pathLatency.getP99Micros()))
+                        .setP999Micros(BigInteger.valueOf(pathLatency.getP999Micros()))
+                        .setMaxMicros(BigInteger.valueOf(pathLatency.getMaxMicros()))
+                        .build())
+                .setPathCacheHits(BigInteger.valueOf(getPathCacheHits()))
+                .setPathCacheMisses(BigInteger.valueOf(getPathCacheMisses()))
+                .setPathCacheHitRatio(toDecimal(getPathCacheHitRatio(), 4))
+                .setTreeCacheHitRatio(toDecimal(getTreeCacheHitRatio(), 4))
+                .setFlowsProgrammed(BigInteger.valueOf(flowsProgrammed))
+                .setFlowsProgrammedPerSecond(toDecimal(flowsProgrammedPerSecond, 3))
+                .setAddFlowLatency(new AddFlowLatencyBuilder()
+                        .setCount(BigInteger.valueOf(addFlowLatency.getCount()))
+                        .setMeanMicros(toDecimal(addFlowLatency.getMeanMicros(), 3))
+                        .setP50Micros(BigInteger.valueOf(addFlowLatency.getP50Micros()))
+                        .setP90Micros(BigInteger.valueOf(addFlowLatency.getP90Micros()))
+                        .setP99Micros(BigInteger.valueOf(addFlowLatency.getP99Micros()))
+                        .setP999Micros(BigInteger.valueOf(addFlowLatency.getP999Micros()))
+                        .setMaxMicros(BigInteger.valueOf(addFlowLatency.getMaxMicros()))
+                        .build())
+                .setAddFlowFailures(BigInteger.valueOf(getAddFlowFailures()))
+                .setTopologyVersion(BigInteger.valueOf(snapshot.getVersion()))
+                .setTopologyNodes((long) snapshot.getGraph().getNodeCount())
+                .setTopologyEdges((long) snapshot.getGraph().getSlotCount())
+                .build();
+
+        WriteTransaction transaction = dataBroker.newWriteOnlyTransaction();
+        transaction.put(LogicalDatastoreType.OPERATIONAL, STATISTICS_IID, statistics);
+        transaction.submit().checkedGet();
+    }
+
+    private static double ratio(long hits, long misses) {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    private static BigDecimal toDecimal(double value, int fractionDigits) {
+        return BigDecimal.valueOf(value).setScale(fractionDigits, RoundingMode.HALF_UP);
+    }
+}
@@ -0,0 +1,79 @@
+package eu.virtuwind.monitoring.impl.metrics;
+
+/**
+ * The metrics of the reactive routing pipeline, as exposed over JMX by {@link RoutingMetrics}. Counters count since
+ * the module was started.
+ */
+public interface RoutingMetricsMXBean {
+
+    /**
+     * @return the number of ARP notifications received
+     */
+    long getArpsReceived();
+
+    /**
+     * @return the number of ARPs whose pair of hosts was already waiting to be routed
+     */
+    long getArpsDeduplicated();
+
+    /**
+     * @return the number of ARPs or pairs of hosts dropped because a queue of the pipeline was full
+     */
+    long getArpsDropped();
+
+    /**
+     * @return the number of pairs of hosts received before the topology was ready and routed once it was
+     */
+    long getArpsBuffered();
+
+    /**
+     * @return the latency of the path computations, from the shortest path tree to the output ports
+     */
+    LatencySummary getPathComputationLatency();
+
+    long getPathCacheHits();
+
+    long getPathCacheMisses();
+
+    /**
+     * @return the fraction of path lookups answered by the path cache, 0 if there was none
+     */
+    double getPathCacheHitRatio();
+
+    /**
+     * @return the fraction of shortest path tree lookups answered by the tree cache, 0 if there was none
+     */
+    double getTreeCacheHitRatio();
+
+    /**
+     * @return the number of flows added to the switches
+     */
+    long getFlowsProgrammed();
+
+    /**
+     * @return the number of flows added to the switches per second, over the last publication period
+     */
+    double getFlowsProgrammedPerSecond();
+
+    /**
+     * @return the latency of the addFlow RPCs, from their call to their result
+     */
+    LatencySummary getAddFlowLatency();
+
+    /**
+     * @return the number of addFlow RPCs that failed
+     */
+    long getAddFlowFailures();
+
+    long getTopologyVersion();
+
+    /**
+     * @return the number of switches and hosts in the topology
+     */
+    int getTopologyNodes();
+
+    /**
+     * @return the number of directed edges in the topology; a host link counts as two
+     */
+    int getTopologyEdges();
+}
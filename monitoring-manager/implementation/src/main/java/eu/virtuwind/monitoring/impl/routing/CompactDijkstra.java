@@ -0,0 +1,179 @@
+package eu.virtuwind.monitoring.impl.routing;
+
+import eu.virtuwind.monitoring.impl.graphstream.algorithm.util.IndexedDaryHeap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Dijkstra's algorithm on a {@link CompactGraph}. All the state of a computation (distances, tree edges and the
+ * {@link IndexedDaryHeap} priority queue) lives in primitive arrays indexed by node, which are allocated once and
+ * reused by subsequent computations on graphs of the same or smaller size. An instance is not thread safe; use one
+ * instance per thread.
+ *
+ * <p>
+ * The solution access methods mirror those of
+ * {@link eu.virtuwind.monitoring.impl.graphstream.algorithm.Dijkstra}, with nodes and edges given by their index
+ * and slot in the snapshot.
+ * </p>
+ */
+public class CompactDijkstra {
+    private static final int HEAP_ARITY = 4;
+
+    private CompactGraph graph;
+    private int source = -1;
+    private double[] distance = new double[0];
+    private int[] edgeFromParent = new int[0];
+    private int[] parent = new int[0];
+    private final IndexedDaryHeap heap = new IndexedDaryHeap(HEAP_ARITY, 0);
+
+    /**
+     * Sets the graph of subsequent computations, growing the internal arrays if needed.
+     *
+     * @param graph the graph
+     */
+    public void init(CompactGraph graph) {
+        this.graph = graph;
+        this.source = -1;
+        int n = graph.getNodeCount();
+        if (distance.length < n) {
+            distance = new double[n];
+            edgeFromParent = new int[n];
+            parent = new int[n];
+        }
+        heap.ensureCapacity(n);
+    }
+
+    public CompactGraph getGraph() {
+        return graph;
+    }
+
+    public int getSource() {
+        return source;
+    }
+
+    /**
+     * Computes the shortest paths from the source node to all nodes in the graph.
+     *
+     * @param source index of the source node
+     * @throws IllegalStateException if {@link #init(CompactGraph)} has not been called before
+     * @complexity O(<em>m</em>log<em>n</em>) where <em>m</em> is the number of edges and <em>n</em> is the number
+     * of nodes in the graph.
+     */
+    public void compute(int source) {
+        compute(source, null);
+    }
+
+    /**
+     * Computes the shortest paths from the source node to all nodes in the graph, ignoring some edges.
+     *
+     * @param source        index of the source node
+     * @param excludedSlots the slots of the edges to ignore, or {@code null} to use all the edges
+     * @throws IllegalStateException if {@link #init(CompactGraph)} has not been called before
+     * @complexity O(<em>m</em>log<em>n</em>) where <em>m</em> is the number of edges and <em>n</em> is the number
+     * of nodes in the graph.
+     */
+    public void compute(int source, BitSet excludedSlots) {
+        if (graph == null) {
+            throw new IllegalStateException("No graph specified. Call init() first.");
+        }
+        int n = graph.getNodeCount();
+        if (source < 0 || source >= n) {
+            throw new IllegalArgumentException("Invalid source node " + source);
+        }
+        this.source = source;
+        Arrays.fill(distance, 0, n, Double.POSITIVE_INFINITY);
+        Arrays.fill(edgeFromParent, 0, n, -1);
+        Arrays.fill(parent, 0, n, -1);
+        heap.clear();
+
+        distance[source] = 0;
+        heap.add(source, 0);
+        while (!heap.isEmpty()) {
+            int u = heap.extractMin();
+            double distanceU = distance[u];
+            for (int slot = graph.getFirstSlot(u), end = graph.getFirstSlot(u + 1); slot < end; slot++) {
+                if (excludedSlots != null && excludedSlots.get(slot)) {
+                    continue;
+                }
+                int v = graph.getTarget(slot);
+                double tryDistance = distanceU + graph.getWeight(slot);
+                // a settled node is out of the heap and already has a distance not greater than tryDistance
+                if (tryDistance < distance[v]) {
+                    distance[v] = tryDistance;
+                    edgeFromParent[v] = slot;
+                    parent[v] = u;
+                    if (heap.contains(v)) {
+                        heap.decreaseKey(v, tryDistance);
+                    } else {
+                        heap.add(v, tryDistance);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @param target index of a node
+     * @return the length of the shortest path from the source to the target, or
+     * {@link Double#POSITIVE_INFINITY} if there is no such path
+     */
+    public double getPathLength(int target) {
+        return distance[target];
+    }
+
+    /**
+     * @param target index of a node
+     * @return the slot of the edge between the target and its parent in the shortest path tree, or -1 if the target
+     * is the source or is not reachable
+     */
+    public int getEdgeFromParent(int target) {
+        return edgeFromParent[target];
+    }
+
+    /**
+     * @param target index of a node
+     * @return the index of the parent of the target in the shortest path tree, or -1 if the target is the source or
+     * is not reachable
+     */
+    public int getParent(int target) {
+        return parent[target];
+    }
+
+    /**
+     * Copies the shortest path tree of the last computation, so that it outlives the next computation.
+     *
+     * @return the shortest path tree rooted at the source
+     * @throws IllegalStateException if {@link #compute(int)} has not been called since {@link #init(CompactGraph)}
+     */
+    public ShortestPathTree getShortestPathTree() {
+        if (source < 0) {
+            throw new IllegalStateException("No shortest path tree computed. Call compute() first.");
+        }
+        int n = graph.getNodeCount();
+        return new ShortestPathTree(graph, source, Arrays.copyOf(parent, n), Arrays.copyOf(edgeFromParent, n),
+                Arrays.copyOf(distance, n));
+    }
+
+    /**
+     * Returns the ids of the edges on the shortest path from the source to the target, in the same order as
+     * {@link eu.virtuwind.monitoring.impl.graphstream.algorithm.Dijkstra#getPathEdges(org.graphstream.graph.Node)}:
+     * the edge entering the target first and the edge leaving the source last.
+     *
+     * @param target index of a node
+     * @return the edge ids, empty if there is no path or if the target is the source
+     */
+    public List<String> getPathEdgeIds(int target) {
+        List<String> edgeIds = new ArrayList<>();
+        int node = target;
+        int slot = edgeFromParent[node];
+        while (slot >= 0) {
+            edgeIds.add(graph.getEdgeId(slot));
+            node = parent[node];
+            slot = edgeFromParent[node];
+        }
+        return edgeIds;
+    }
+}
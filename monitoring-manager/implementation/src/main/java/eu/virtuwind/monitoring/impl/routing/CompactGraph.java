@@ -0,0 +1,214 @@
+package eu.virtuwind.monitoring.impl.routing;
+
+import com.google.common.base.Preconditions;
+import org.graphstream.graph.Edge;
+import org.graphstream.graph.Graph;
+import org.graphstream.graph.Node;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An immutable snapshot of a graph in compressed sparse row (CSR) form. Nodes are identified by an int index in
+ * {@code [0, getNodeCount())}; the edges leaving node {@code u} occupy the slots
+ * {@code [getFirstSlot(u), getFirstSlot(u + 1))}, and each slot stores the target node, the length and the id of
+ * the edge. Undirected edges appear once in the slots of each of their end nodes.
+ *
+ * <p>
+ * The snapshot is meant for path computation: it holds no per-node objects or attribute maps, so algorithms running
+ * on it can keep all their state in primitive arrays indexed by node or slot.
+ * </p>
+ */
+public final class CompactGraph {
+    private final long version;
+    private final String[] nodeIds;
+    private final Map<String, Integer> nodeIndex;
+    private final int[] offsets;
+    private final int[] targets;
+    private final double[] weights;
+    private final String[] edgeIds;
+    // built on first use, see #getFirstInEdge(int)
+    private volatile InEdges inEdges;
+
+    /**
+     * Creates a snapshot from raw CSR arrays. The arrays are not copied.
+     *
+     * @param version version of the topology the snapshot was taken from
+     * @param nodeIds node ids, indexed by node index
+     * @param offsets for each node index, the first slot of its leaving edges; {@code offsets[n]} is the slot count
+     * @param targets for each slot, the index of the node the edge leads to
+     * @param weights for each slot, the nonnegative length of the edge
+     * @param edgeIds for each slot, the id of the edge
+     */
+    public CompactGraph(long version, String[] nodeIds, int[] offsets, int[] targets, double[] weights,
+                        String[] edgeIds) {
+        Preconditions.checkArgument(offsets.length == nodeIds.length + 1,
+                "offsets must have one entry per node plus one");
+        int slots = offsets[nodeIds.length];
+        Preconditions.checkArgument(targets.length == slots && weights.length == slots && edgeIds.length == slots,
+                "targets, weights and edgeIds must have one entry per slot");
+        this.version = version;
+        this.nodeIds = nodeIds;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.weights = weights;
+        this.edgeIds = edgeIds;
+        this.nodeIndex = new HashMap<>(nodeIds.length * 2);
+        for (int i = 0; i < nodeIds.length; i++) {
+            nodeIndex.put(nodeIds[i], i);
+        }
+    }
+
+    /**
+     * Takes a snapshot of a GraphStream graph.
+     *
+     * @param graph           the graph
+     * @param lengthAttribute numeric edge attribute holding edge lengths; if {@code null}, or if an edge has no such
+     *                        attribute, the edge length is one
+     * @param version         version of the topology the graph represents
+     * @return the snapshot
+     * @throws IllegalStateException if an edge has a negative length
+     */
+    public static CompactGraph of(Graph graph, String lengthAttribute, long version) {
+        int n = graph.getNodeCount();
+        String[] nodeIds = new String[n];
+        int[] offsets = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            Node node = graph.getNode(i);
+            nodeIds[i] = node.getId();
+            offsets[i + 1] = offsets[i] + node.getOutDegree();
+        }
+
+        int slots = offsets[n];
+        int[] targets = new int[slots];
+        double[] weights = new double[slots];
+        String[] edgeIds = new String[slots];
+        for (int i = 0; i < n; i++) {
+            Node node = graph.getNode(i);
+            int slot = offsets[i];
+            for (Edge edge : node.getEachLeavingEdge()) {
+                double weight = lengthAttribute == null ? 1 : edge.getNumber(lengthAttribute);
+                if (Double.isNaN(weight)) {
+                    weight = 1;
+                }
+                if (weight < 0) {
+                    throw new IllegalStateException("Edge " + edge.getId() + " has negative length " + weight);
+                }
+                targets[slot] = edge.getOpposite(node).getIndex();
+                weights[slot] = weight;
+                edgeIds[slot] = edge.getId();
+                slot++;
+            }
+        }
+        return new CompactGraph(version, nodeIds, offsets, targets, weights, edgeIds);
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public int getNodeCount() {
+        return nodeIds.length;
+    }
+
+    public int getSlotCount() {
+        return targets.length;
+    }
+
+    /**
+     * @param nodeId a node id
+     * @return the index of the node, or -1 if the node is not part of the snapshot
+     */
+    public int indexOf(String nodeId) {
+        Integer index = nodeIndex.get(nodeId);
+        return index == null ? -1 : index;
+    }
+
+    public String getNodeId(int node) {
+        return nodeIds[node];
+    }
+
+    /**
+     * @param node a node index, or the node count to get the end of the last node's slots
+     * @return the first slot of the edges leaving the node
+     */
+    public int getFirstSlot(int node) {
+        return offsets[node];
+    }
+
+    public int getTarget(int slot) {
+        return targets[slot];
+    }
+
+    public double getWeight(int slot) {
+        return weights[slot];
+    }
+
+    public String getEdgeId(int slot) {
+        return edgeIds[slot];
+    }
+
+    /**
+     * The edges entering node {@code v} are the in-edges {@code [getFirstInEdge(v), getFirstInEdge(v + 1))}, whose
+     * slots are given by {@link #getInEdgeSlot(int)}. The in-edge index is built on first use, in O(<em>m</em>).
+     *
+     * @param node a node index, or the node count to get the end of the last node's in-edges
+     * @return the first in-edge of the node
+     */
+    public int getFirstInEdge(int node) {
+        return getInEdges().offsets[node];
+    }
+
+    /**
+     * @param inEdge an in-edge, see {@link #getFirstInEdge(int)}
+     * @return the slot of the in-edge
+     */
+    public int getInEdgeSlot(int inEdge) {
+        return getInEdges().slots[inEdge];
+    }
+
+    /**
+     * @param slot a slot
+     * @return the index of the node the edge leaves from
+     */
+    public int getSource(int slot) {
+        return getInEdges().sources[slot];
+    }
+
+    private InEdges getInEdges() {
+        InEdges index = inEdges;
+        if (index == null) {
+            // concurrent callers may each build an index; they are identical
+            index = new InEdges(offsets, targets);
+            inEdges = index;
+        }
+        return index;
+    }
+
+    private static final class InEdges {
+        private final int[] offsets;
+        private final int[] slots;
+        private final int[] sources;
+
+        private InEdges(int[] outOffsets, int[] targets) {
+            int n = outOffsets.length - 1;
+            offsets = new int[n + 1];
+            slots = new int[targets.length];
+            sources = new int[targets.length];
+            for (int target : targets) {
+                offsets[target + 1]++;
+            }
+            for (int v = 0; v < n; v++) {
+                offsets[v + 1] += offsets[v];
+            }
+            int[] next = Arrays.copyOf(offsets, n);
+            for (int u = 0; u < n; u++) {
+                for (int slot = outOffsets[u]; slot < outOffsets[u + 1]; slot++) {
+                    sources[slot] = u;
+                    slots[next[targets[slot]]++] = slot;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package eu.virtuwind.monitoring.impl.routing;
+
+import eu.virtuwind.monitoring.impl.graphstream.algorithm.util.IndexedDaryHeap;
+
+import java.util.Arrays;
+
+/**
+ * Repairs a {@link ShortestPathTree} after edges of the graph were removed, added or changed length, instead of
+ * computing the tree of the new graph from scratch. The repair follows Ramalingam and Reps:
+ * <ol>
+ * <li>Tree edges that no longer exist or got longer break the tree. The nodes below a broken edge are the only ones
+ * whose distance may have increased; they lose their distance and parent. All other nodes keep theirs, which are
+ * still the lengths of existing paths.</li>
+ * <li>The edges entering detached nodes and the new or shortened edges seed a Dijkstra run, which only visits the
+ * nodes whose distance improves, typically a small part of the graph.</li>
+ * </ol>
+ *
+ * <p>
+ * The old and the new graph must have the same nodes at the same indices, which holds as long as only links change;
+ * otherwise the tree cannot be repaired. An instance reuses its arrays across repairs and is not thread safe; use one
+ * instance per thread.
+ * </p>
+ */
+public class DynamicDijkstra {
+    private static final int HEAP_ARITY = 4;
+    private static final byte UNKNOWN = 0;
+    private static final byte INTACT = 1;
+    private static final byte DETACHED = 2;
+
+    private final IndexedDaryHeap heap = new IndexedDaryHeap(HEAP_ARITY, 0);
+    private byte[] state = new byte[0];
+    private int[] stack = new int[0];
+    private int detachedNodes;
+
+    // the edges of improvedGraph that are new or shorter than in improvedOldGraph
+    private CompactGraph improvedOldGraph;
+    private CompactGraph improvedGraph;
+    private int[] improvedSlots = new int[0];
+    private int[] improvedSources = new int[0];
+    private int improvedSlotCount;
+
+    /**
+     * Computes the shortest path tree of a new version of the graph from the tree of an old version.
+     *
+     * @param tree  the tree on the old version of the graph
+     * @param graph the new version of the graph
+     * @return the tree on the new version of the graph, rooted at the same source, or {@code null} if the nodes of
+     * the graphs differ
+     * @complexity O(<em>n</em> + <em>k</em>log<em>k</em>) where <em>n</em> is the number of nodes and <em>k</em> is
+     * the number of nodes whose distance changed, plus O(<em>m</em>) for the first tree repaired between two given
+     * graphs, where <em>m</em> is the number of edges
+     */
+    public ShortestPathTree repair(ShortestPathTree tree, CompactGraph graph) {
+        CompactGraph oldGraph = tree.getGraph();
+        if (oldGraph == graph) {
+            return tree;
+        }
+        if (!hasSameNodes(oldGraph, graph)) {
+            return null;
+        }
+        int n = graph.getNodeCount();
+        int source = tree.getSource();
+        if (state.length < n) {
+            state = new byte[n];
+            stack = new int[n];
+        }
+        heap.ensureCapacity(n);
+        heap.clear();
+        Arrays.fill(state, 0, n, UNKNOWN);
+
+        double[] distance = new double[n];
+        int[] parent = new int[n];
+        int[] edgeFromParent = new int[n];
+        state[source] = INTACT;
+        for (int v = 0; v < n; v++) {
+            distance[v] = tree.getPathLength(v);
+            parent[v] = tree.getParent(v);
+            edgeFromParent[v] = -1;
+            if (v == source || parent[v] < 0) {
+                // the source, or a node that was unreachable and may only get closer
+                state[v] = INTACT;
+                continue;
+            }
+            int oldSlot = tree.getEdgeFromParent(v);
+            int slot = findSlot(graph, parent[v], v, oldGraph.getEdgeId(oldSlot));
+            if (slot < 0 || graph.getWeight(slot) > oldGraph.getWeight(oldSlot)) {
+                state[v] = DETACHED;
+            } else {
+                edgeFromParent[v] = slot;
+            }
+        }
+
+        // 1. detach the subtrees below broken edges
+        detachedNodes = 0;
+        for (int v = 0; v < n; v++) {
+            if (resolve(v, parent) == DETACHED) {
+                detachedNodes++;
+                distance[v] = Double.POSITIVE_INFINITY;
+                parent[v] = -1;
+                edgeFromParent[v] = -1;
+            }
+        }
+
+        // 2. seed with the edges entering detached nodes and the new or shortened edges, then run Dijkstra
+        findImprovedEdges(oldGraph, graph);
+        if (detachedNodes > 0) {
+            for (int v = 0; v < n; v++) {
+                if (state[v] == DETACHED) {
+                    for (int i = graph.getFirstInEdge(v), end = graph.getFirstInEdge(v + 1); i < end; i++) {
+                        int slot = graph.getInEdgeSlot(i);
+                        relax(graph, graph.getSource(slot), slot, distance, parent, edgeFromParent);
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < improvedSlotCount; i++) {
+            relax(graph, improvedSources[i], improvedSlots[i], distance, parent, edgeFromParent);
+        }
+        while (!heap.isEmpty()) {
+            int u = heap.extractMin();
+            for (int slot = graph.getFirstSlot(u), end = graph.getFirstSlot(u + 1); slot < end; slot++) {
+                relax(graph, u, slot, distance, parent, edgeFromParent);
+            }
+        }
+        return new ShortestPathTree(graph, source, parent, edgeFromParent, distance);
+    }
+
+    /**
+     * @return the number of nodes detached from the tree by the last repair
+     */
+    public int getDetachedNodes() {
+        return detachedNodes;
+    }
+
+    private void relax(CompactGraph graph, int u, int slot, double[] distance, int[] parent, int[] edgeFromParent) {
+        int v = graph.getTarget(slot);
+        double tryDistance = distance[u] + graph.getWeight(slot);
+        if (tryDistance < distance[v]) {
+            distance[v] = tryDistance;
+            parent[v] = u;
+            edgeFromParent[v] = slot;
+            if (heap.contains(v)) {
+                heap.decreaseKey(v, tryDistance);
+            } else {
+                heap.add(v, tryDistance);
+            }
+        }
+    }
+
+    /**
+     * Collects the edges of the new graph that are missing from the old graph or shorter than in the old graph. They
+     * only depend on the pair of graphs, so they are kept for the repair of the next tree, typically rooted at
+     * another source on the same graphs.
+     */
+    private void findImprovedEdges(CompactGraph oldGraph, CompactGraph graph) {
+        if (oldGraph == improvedOldGraph && graph == improvedGraph) {
+            return;
+        }
+        int n = graph.getNodeCount();
+        int m = graph.getSlotCount();
+        if (improvedSlots.length < m) {
+            improvedSlots = new int[m];
+            improvedSources = new int[m];
+        }
+        improvedSlotCount = 0;
+        for (int u = 0; u < n; u++) {
+            for (int slot = graph.getFirstSlot(u), end = graph.getFirstSlot(u + 1); slot < end; slot++) {
+                int oldSlot = findSlot(oldGraph, u, graph.getTarget(slot), graph.getEdgeId(slot));
+                if (oldSlot < 0 || graph.getWeight(slot) < oldGraph.getWeight(oldSlot)) {
+                    improvedSlots[improvedSlotCount] = slot;
+                    improvedSources[improvedSlotCount] = u;
+                    improvedSlotCount++;
+                }
+            }
+        }
+        improvedOldGraph = oldGraph;
+        improvedGraph = graph;
+    }
+
+    /**
+     * Finds out whether a node is below a broken edge by walking up the old tree until a node of known state,
+     * recording the state of every node on the way.
+     */
+    private byte resolve(int v, int[] parent) {
+        int top = 0;
+        int node = v;
+        while (state[node] == UNKNOWN) {
+            stack[top++] = node;
+            node = parent[node];
+        }
+        byte result = state[node];
+        while (top > 0) {
+            state[stack[--top]] = result;
+        }
+        return result;
+    }
+
+    private static int findSlot(CompactGraph graph, int from, int to, String edgeId) {
+        for (int slot = graph.getFirstSlot(from), end = graph.getFirstSlot(from + 1); slot < end; slot++) {
+            String id = graph.getEdgeId(slot);
+            if (graph.getTarget(slot) == to && (id == edgeId || id.equals(edgeId))) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean hasSameNodes(CompactGraph a, CompactGraph b) {
+        int n = a.getNodeCount();
+        if (b.getNodeCount() != n) {
+            return false;
+        }
+        for (int i = 0; i < n; i++) {
+            String id = a.getNodeId(i);
+            if (id != b.getNodeId(i) && !id.equals(b.getNodeId(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,135 @@
+package eu.virtuwind.monitoring.impl.routing;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Enumerates the equal-cost shortest paths between two switches and caches them, so that the hosts behind a pair of
+ * switches can be spread over all the paths between them at the cost of one enumeration. The paths are cached per
+ * pair of switches for the snapshot of the topology they were enumerated on; when the cache is full, the least
+ * recently used pair is evicted, and all the pairs are dropped as soon as a newer snapshot is used.
+ */
+public class EqualCostPaths {
+    // relative tolerance when comparing path lengths, which are sums of doubles
+    private static final double EPSILON = 1e-9;
+
+    private final int maxPaths;
+    private final Map<Long, List<List<String>>> paths;
+    private CompactGraph graph;
+    private long hits;
+    private long misses;
+
+    /**
+     * @param capacity the maximum number of pairs of switches whose paths are kept
+     * @param maxPaths the maximum number of paths enumerated between two switches
+     */
+    public EqualCostPaths(final int capacity, int maxPaths) {
+        Preconditions.checkArgument(capacity > 0, "capacity should be positive.");
+        Preconditions.checkArgument(maxPaths > 0, "maxPaths should be positive.");
+        this.maxPaths = maxPaths;
+        this.paths = new LinkedHashMap<Long, List<List<String>>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, List<List<String>>> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns the equal-cost shortest paths between two nodes of a shortest path tree, the first node lying on the
+     * shortest paths from the source of the tree to the second one. The paths are sorted by their edge ids, so that
+     * their order does not depend on the order of the edges in the snapshot.
+     *
+     * @param tree the shortest path tree
+     * @param from index of the first node
+     * @param to   index of the second node
+     * @return the paths, each as edge ids with the edge entering {@code to} first; at most {@code maxPaths} of them
+     */
+    public List<List<String>> get(ShortestPathTree tree, int from, int to) {
+        CompactGraph treeGraph = tree.getGraph();
+        long key = ((long) from << 32) | (to & 0xffffffffL);
+        synchronized (this) {
+            if (graph != treeGraph) {
+                if (graph != null && graph.getVersion() > treeGraph.getVersion()) {
+                    misses++;
+                    return enumerate(tree, from, to);
+                }
+                paths.clear();
+                graph = treeGraph;
+            }
+            List<List<String>> cached = paths.get(key);
+            if (cached != null) {
+                hits++;
+                return cached;
+            }
+            misses++;
+        }
+        List<List<String>> enumerated = enumerate(tree, from, to);
+        synchronized (this) {
+            if (graph == treeGraph) {
+                paths.put(key, enumerated);
+            }
+        }
+        return enumerated;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Walks back from {@code to} along every edge that lies on a shortest path from the source of the tree, that is
+     * every edge whose length is the difference of the distances of its end nodes, until {@code from}.
+     */
+    private List<List<String>> enumerate(ShortestPathTree tree, int from, int to) {
+        List<List<String>> found = new ArrayList<>();
+        if (tree.getPathLength(to) != Double.POSITIVE_INFINITY) {
+            walkBack(tree, from, to, new ArrayList<String>(), found);
+        }
+        Collections.sort(found, new Comparator<List<String>>() {
+            @Override
+            public int compare(List<String> a, List<String> b) {
+                for (int i = 0; i < Math.min(a.size(), b.size()); i++) {
+                    int c = a.get(i).compareTo(b.get(i));
+                    if (c != 0) {
+                        return c;
+                    }
+                }
+                return a.size() - b.size();
+            }
+        });
+        return ImmutableList.copyOf(found);
+    }
+
+    private void walkBack(ShortestPathTree tree, int from, int node, List<String> path, List<List<String>> found) {
+        if (node == from) {
+            found.add(ImmutableList.copyOf(path));
+            return;
+        }
+        CompactGraph g = tree.getGraph();
+        double distance = tree.getPathLength(node);
+        for (int i = g.getFirstInEdge(node), end = g.getFirstInEdge(node + 1); i < end && found.size() < maxPaths;
+             i++) {
+            int slot = g.getInEdgeSlot(i);
+            int u = g.getSource(slot);
+            double distanceU = tree.getPathLength(u);
+            if (u != tree.getSource() && distanceU < distance
+                    && Math.abs(distanceU + g.getWeight(slot) - distance) <= EPSILON * Math.max(1, distance)) {
+                path.add(g.getEdgeId(slot));
+                walkBack(tree, from, u, path, found);
+                path.remove(path.size() - 1);
+            }
+        }
+    }
+}
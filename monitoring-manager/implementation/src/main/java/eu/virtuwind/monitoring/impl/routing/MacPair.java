@@ -0,0 +1,86 @@
+package eu.virtuwind.monitoring.impl.routing;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * An ordered (source, destination) pair of host MAC addresses, as they appear as node ids in the
+ * {@link eu.virtuwind.monitoring.impl.TopologyGraph}. The source may be {@link #ANY_SOURCE}, for the forwarding tree
+ * that carries the traffic of all the hosts to the destination.
+ *
+ * <p>
+ * Pairs are compared on their addresses in lower case, as the ARPs, the switches and the topology may report the
+ * same address in different cases. The getters return the addresses as they were given.
+ * </p>
+ */
+public final class MacPair {
+    /**
+     * The source of the pair of a destination tree, which matches on the destination only.
+     */
+    public static final String ANY_SOURCE = "*";
+
+    private final String sourceMac;
+    private final String destinationMac;
+    private final String sourceKey;
+    private final String destinationKey;
+
+    public MacPair(String sourceMac, String destinationMac) {
+        Preconditions.checkNotNull(sourceMac, "Source mac address should not be null.");
+        Preconditions.checkNotNull(destinationMac, "Destination mac address should not be null.");
+        this.sourceMac = sourceMac;
+        this.destinationMac = destinationMac;
+        this.sourceKey = sourceMac.toLowerCase();
+        this.destinationKey = destinationMac.toLowerCase();
+    }
+
+    /**
+     * @param destinationMac the destination host
+     * @return the pair of the forwarding tree of the destination host
+     */
+    public static MacPair anySource(String destinationMac) {
+        return new MacPair(ANY_SOURCE, destinationMac);
+    }
+
+    /**
+     * @return true if this is the pair of a destination tree
+     */
+    public boolean isAnySource() {
+        return ANY_SOURCE.equals(sourceMac);
+    }
+
+    public String getSourceMac() {
+        return sourceMac;
+    }
+
+    public String getDestinationMac() {
+        return destinationMac;
+    }
+
+    /**
+     * @return the pair for the opposite direction
+     */
+    public MacPair reverse() {
+        return new MacPair(destinationMac, sourceMac);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof MacPair)) {
+            return false;
+        }
+        MacPair other = (MacPair) o;
+        return sourceKey.equals(other.sourceKey) && destinationKey.equals(other.destinationKey);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * sourceKey.hashCode() + destinationKey.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return sourceMac + " -> " + destinationMac;
+    }
+}
@@ -0,0 +1,84 @@
+package eu.virtuwind.monitoring.impl.routing;
+
+import com.google.common.collect.ImmutableList;
+import eu.virtuwind.monitoring.impl.TopologyGraph;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the output ports of the shortest path between two hosts, so that repeated ARPs for a known
+ * pair cost a hash lookup instead of a Dijkstra run. The cache is bound to the version of the
+ * {@link TopologyGraph} it was filled from and is dropped as soon as the topology changes.
+ */
+public class PathCache {
+    private final TopologyGraph topologyGraph;
+    private final ConcurrentMap<MacPair, List<String>> paths = new ConcurrentHashMap<>();
+    private volatile long version = -1;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public PathCache(TopologyGraph topologyGraph) {
+        this.topologyGraph = topologyGraph;
+    }
+
+    /**
+     * @param pair the source and destination hosts
+     * @return the cached output ports for the pair, or {@code null} if the path is not known for the
+     * current topology version
+     */
+    public List<String> get(MacPair pair) {
+        validate();
+        List<String> path = paths.get(pair);
+        if (path != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return path;
+    }
+
+    /**
+     * Stores a path. The path is discarded if the topology changed since {@code topologyVersion}, the
+     * version the path was computed on.
+     *
+     * @param pair            the source and destination hosts
+     * @param outputPorts     output ports of the path, in the order they are programmed
+     * @param topologyVersion the version of the topology the path was computed on
+     */
+    public void put(MacPair pair, List<String> outputPorts, long topologyVersion) {
+        validate();
+        if (topologyVersion == version) {
+            paths.put(pair, ImmutableList.copyOf(outputPorts));
+        }
+    }
+
+    /**
+     * @return the number of cached paths
+     */
+    public int size() {
+        return paths.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    private void validate() {
+        if (topologyGraph.getVersion() != version) {
+            synchronized (this) {
+                long current = topologyGraph.getVersion();
+                if (current != version) {
+                    paths.clear();
+                    version = current;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package eu.virtuwind.monitoring.impl.routing;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An immutable shortest path tree of a {@link CompactGraph}, as computed by {@link CompactDijkstra}: for every node,
+ * its distance from the source, its parent in the tree and the slot of the edge from the parent. The path from the
+ * source to any node is read by walking the parent chain, without running Dijkstra again.
+ */
+public final class ShortestPathTree {
+    private final CompactGraph graph;
+    private final int source;
+    private final int[] parent;
+    private final int[] edgeFromParent;
+    private final double[] distance;
+
+    /**
+     * Creates a tree from raw arrays. The arrays are not copied.
+     *
+     * @param graph          the graph the tree spans
+     * @param source         index of the source node
+     * @param parent         for each node index, the index of its parent, or -1 for the source and unreachable nodes
+     * @param edgeFromParent for each node index, the slot of the edge from its parent, or -1 for the source and
+     *                       unreachable nodes
+     * @param distance       for each node index, the length of the path from the source, or
+     *                       {@link Double#POSITIVE_INFINITY} for unreachable nodes
+     */
+    public ShortestPathTree(CompactGraph graph, int source, int[] parent, int[] edgeFromParent, double[] distance) {
+        this.graph = graph;
+        this.source = source;
+        this.parent = parent;
+        this.edgeFromParent = edgeFromParent;
+        this.distance = distance;
+    }
+
+    public CompactGraph getGraph() {
+        return graph;
+    }
+
+    public int getSource() {
+        return source;
+    }
+
+    /**
+     * @param target index of a node
+     * @return the length of the path from the source to the target, or {@link Double#POSITIVE_INFINITY} if there is
+     * no such path
+     */
+    public double getPathLength(int target) {
+        return distance[target];
+    }
+
+    /**
+     * @param target index of a node
+     * @return the index of the parent of the target, or -1 if the target is the source or is not reachable
+     */
+    public int getParent(int target) {
+        return parent[target];
+    }
+
+    /**
+     * @param target index of a node
+     * @return the slot of the edge between the target and its parent, or -1 if the target is the source or is not
+     * reachable
+     */
+    public int getEdgeFromParent(int target) {
+        return edgeFromParent[target];
+    }
+
+    /**
+     * Returns the ids of the edges on the path from the source to the target, in the same order as
+     * {@link CompactDijkstra#getPathEdgeIds(int)}: the edge entering the target first.
+     *
+     * @param target index of a node
+     * @return the edge ids, empty if there is no path or if the target is the source
+     */
+    public List<String> getPathEdgeIds(int target) {
+        List<String> edgeIds = new ArrayList<>();
+        int node = target;
+        int slot = edgeFromParent[node];
+        while (slot >= 0) {
+            edgeIds.add(graph.getEdgeId(slot));
+            node = parent[node];
+            slot = edgeFromParent[node];
+        }
+        return edgeIds;
+    }
+}
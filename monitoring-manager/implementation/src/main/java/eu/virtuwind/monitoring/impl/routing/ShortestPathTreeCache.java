@@ -0,0 +1,91 @@
+package eu.virtuwind.monitoring.impl.routing;
+
+import com.google.common.base.Preconditions;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Caches the shortest path tree of the most recently used source hosts, so that the paths from a known source to
+ * any destination only cost a walk up the tree. When the cache is full, the least recently used tree is evicted. A
+ * tree is only returned as a hit for the snapshot of the topology it was computed on. Outdated trees are kept until
+ * they are replaced by a newer one, so that they can be repaired by {@link DynamicDijkstra} instead of being
+ * computed again from scratch.
+ */
+public class ShortestPathTreeCache {
+    private final int capacity;
+    private final Map<String, ShortestPathTree> trees;
+    private long hits;
+    private long misses;
+
+    /**
+     * @param capacity the maximum number of trees kept
+     */
+    public ShortestPathTreeCache(final int capacity) {
+        Preconditions.checkArgument(capacity > 0, "capacity should be positive.");
+        this.capacity = capacity;
+        this.trees = new LinkedHashMap<String, ShortestPathTree>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ShortestPathTree> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * @param sourceMac the source host
+     * @param graph     the current snapshot of the topology
+     * @return the tree rooted at the source host on that snapshot, or {@code null} if it is not cached
+     */
+    public synchronized ShortestPathTree get(String sourceMac, CompactGraph graph) {
+        ShortestPathTree tree = trees.get(sourceMac);
+        if (tree != null && tree.getGraph() == graph) {
+            hits++;
+            return tree;
+        }
+        misses++;
+        return null;
+    }
+
+    /**
+     * @param sourceMac the source host
+     * @return the most recent tree rooted at the source host, whatever snapshot of the topology it was computed on,
+     * or {@code null} if there is none
+     */
+    public synchronized ShortestPathTree getLatest(String sourceMac) {
+        return trees.get(sourceMac);
+    }
+
+    /**
+     * Stores a tree, unless the cached tree of the same source host was computed on a newer snapshot of the
+     * topology.
+     *
+     * @param sourceMac the source host the tree is rooted at
+     * @param tree      the tree
+     */
+    public synchronized void put(String sourceMac, ShortestPathTree tree) {
+        ShortestPathTree current = trees.get(sourceMac);
+        if (current == null || current.getGraph().getVersion() <= tree.getGraph().getVersion()) {
+            trees.put(sourceMac, tree);
+        }
+    }
+
+    /**
+     * @return the maximum number of trees kept
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public synchronized int size() {
+        return trees.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+}
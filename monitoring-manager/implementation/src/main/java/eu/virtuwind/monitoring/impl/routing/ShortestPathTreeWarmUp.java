@@ -0,0 +1,113 @@
+package eu.virtuwind.monitoring.impl.routing;
+
+import com.google.common.base.Preconditions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fills a {@link ShortestPathTreeCache} with the shortest path tree of every host of a topology snapshot, so that the
+ * first ARPs of the hosts find their trees already computed. The hosts are split among the threads of a
+ * {@link ForkJoinPool}; each task runs its own {@link CompactDijkstra}, whose state lives in the instance rather than
+ * in the graph, so the runs do not interfere.
+ */
+public class ShortestPathTreeWarmUp {
+    private static final Logger LOG = LoggerFactory.getLogger(ShortestPathTreeWarmUp.class);
+    private static final int HOSTS_PER_TASK = 8;
+    private static final ForkJoinPool.ForkJoinWorkerThreadFactory THREAD_FACTORY = new WorkerThreadFactory();
+
+    private final ShortestPathTreeCache treeCache;
+    private final int parallelism;
+
+    /**
+     * @param treeCache   the cache to fill
+     * @param parallelism the number of threads computing trees
+     */
+    public ShortestPathTreeWarmUp(ShortestPathTreeCache treeCache, int parallelism) {
+        Preconditions.checkArgument(parallelism > 0, "parallelism should be positive.");
+        this.treeCache = treeCache;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Computes the trees of the hosts that have no tree for the snapshot yet, and waits until they are all cached.
+     * At most as many trees as the cache holds are computed, so that the warm-up does not evict its own trees.
+     *
+     * @param graph the topology snapshot
+     * @return the number of trees computed
+     */
+    public int warmUp(CompactGraph graph) {
+        List<Integer> hosts = new ArrayList<>();
+        for (int node = 0; node < graph.getNodeCount() && hosts.size() < treeCache.getCapacity(); node++) {
+            String nodeId = graph.getNodeId(node);
+            ShortestPathTree cached = treeCache.getLatest(nodeId);
+            if (!nodeId.contains("open") && (cached == null || cached.getGraph() != graph)) {
+                hosts.add(node);
+            }
+        }
+        if (hosts.isEmpty()) {
+            return 0;
+        }
+        long start = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(parallelism, THREAD_FACTORY, null, false);
+        try {
+            pool.invoke(new WarmUpTask(graph, hosts, 0, hosts.size()));
+        } finally {
+            pool.shutdown();
+        }
+        LOG.info("Computed the shortest path trees of {} hosts in {} ms", hosts.size(),
+                (System.nanoTime() - start) / 1000000);
+        return hosts.size();
+    }
+
+    private final class WarmUpTask extends RecursiveAction {
+        private final CompactGraph graph;
+        private final List<Integer> hosts;
+        private final int from;
+        private final int to;
+
+        private WarmUpTask(CompactGraph graph, List<Integer> hosts, int from, int to) {
+            this.graph = graph;
+            this.hosts = hosts;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > HOSTS_PER_TASK) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new WarmUpTask(graph, hosts, from, middle), new WarmUpTask(graph, hosts, middle, to));
+                return;
+            }
+            CompactDijkstra dijkstra = new CompactDijkstra();
+            dijkstra.init(graph);
+            for (int i = from; i < to; i++) {
+                int host = hosts.get(i);
+                dijkstra.compute(host);
+                treeCache.put(graph.getNodeId(host), dijkstra.getShortestPathTree());
+            }
+        }
+    }
+
+    /**
+     * Names the workers of the pools tree-warm-up-N and makes them daemons, like the threads of the other executors.
+     */
+    private static final class WorkerThreadFactory implements ForkJoinPool.ForkJoinWorkerThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("tree-warm-up-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
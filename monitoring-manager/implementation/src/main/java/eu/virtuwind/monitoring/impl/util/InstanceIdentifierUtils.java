@@ -15,6 +15,7 @@ import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.inventory.rev130819.ta
 import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.inventory.rev130819.tables.table.FlowKey;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.NodeConnectorRef;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.NodeId;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.NodeRef;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.Nodes;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.nodes.Node;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.nodes.NodeKey;
@@ -59,4 +60,13 @@ public final class InstanceIdentifierUtils {
         return generateFlowTableInstanceIdentifier(node, flowTableKey).child(Flow.class, flowKey);
     }
 
+    /**
+     * @param nodeRef a reference to a node or to anything below it
+     * @return the id of the node, e.g. openflow:1, or null if the reference does not go through a node
+     */
+    public static String getNodeId(final NodeRef nodeRef) {
+        NodeKey nodeKey = nodeRef == null ? null : nodeRef.getValue().firstKeyOf(Node.class, NodeKey.class);
+        return nodeKey == null ? null : nodeKey.getId().getValue();
+    }
+
 }
\ No newline at end of file